@@ -0,0 +1,442 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * {@link RateLimiter} which adjusts the allowed requests of a decorated {@link RateLimiter} from the round-trip times
+ * that clients report for the calls it lets through, so that the limit follows what the dependency can currently cope
+ * with rather than a value fixed up front.
+ * </p>
+ * 
+ * <p>
+ * It uses a gradient algorithm. Round-trip times are averaged over a sample window and compared with a long-term
+ * average. While the two agree, the limit grows by roughly its square root each window; when the recent average rises
+ * above the long-term one, the limit is scaled down by their ratio, by at most half. A window with dropped calls
+ * halves the limit. Each new limit is smoothed and kept between the minimum and maximum limits.
+ * </p>
+ * 
+ * <p>
+ * Recording a sample adds to striped counters, so the per-call cost is a {@link System#nanoTime()} and a couple of
+ * uncontended increments. The thread which records the first sample after a window has ended recalculates the limit;
+ * samples recorded during the recalculation may be counted in the next window.
+ * </p>
+ * 
+ * <pre>
+ * if (limiter.getToken(key).isUsable()) {
+ *     long start = System.nanoTime();
+ *     // call the dependency
+ *     limiter.recordLatency(System.nanoTime() - start);
+ * }
+ * </pre>
+ * 
+ * @author jabley
+ * 
+ */
+public class AdaptiveRateLimiter implements RateLimiter {
+
+    /**
+     * The non-null delegate, whose allowed requests are adjusted.
+     */
+    private final RateLimiter delegate;
+
+    /**
+     * The smallest limit which will be set.
+     */
+    private volatile int minLimit = 1;
+
+    /**
+     * The largest limit which will be set.
+     */
+    private volatile int maxLimit = 1000;
+
+    /**
+     * The length of each sample window in nanoseconds.
+     */
+    private volatile long sampleWindow = 1000000000L;
+
+    /**
+     * The minimum number of samples in a window before the limit is recalculated.
+     */
+    private volatile int minimumSamples = 10;
+
+    /**
+     * The weight given to each newly calculated limit, between 0 and 1.
+     */
+    private volatile double smoothing = 0.2;
+
+    /**
+     * The number of windows over which the long-term round-trip time is averaged.
+     */
+    private volatile int longWindows = 20;
+
+    /**
+     * The time in nanoseconds when the current sample window started.
+     */
+    private final AtomicLong windowStart;
+
+    /**
+     * The sum of the round-trip times in nanoseconds in the current window.
+     */
+    private final LongAdder rttSum;
+
+    /**
+     * The number of round-trip times in the current window.
+     */
+    private final LongAdder rttCount;
+
+    /**
+     * The number of dropped calls in the current window.
+     */
+    private final LongAdder dropped;
+
+    /**
+     * The unrounded current limit. Only written by the thread recalculating it.
+     */
+    private volatile double estimatedLimit;
+
+    /**
+     * The long-term average round-trip time in nanoseconds, or zero before the first window. Only written by the thread
+     * recalculating the limit.
+     */
+    private volatile double longRtt;
+
+    /**
+     * The average round-trip time in nanoseconds of the last complete window.
+     */
+    private volatile double shortRtt;
+
+    /**
+     * Creates a new {@link AdaptiveRateLimiter} which will adjust the allowed requests of the specified non-null
+     * {@link RateLimiter}, starting from its current value.
+     * 
+     * @param delegate
+     *            a non-null {@link RateLimiter}
+     */
+    public AdaptiveRateLimiter(RateLimiter delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+        this.windowStart = new AtomicLong(System.nanoTime());
+        this.rttSum = new LongAdder();
+        this.rttCount = new LongAdder();
+        this.dropped = new LongAdder();
+        this.estimatedLimit = delegate.getAllowedRequests();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(Key key) {
+        return delegate.getToken(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(long key) {
+        return delegate.getToken(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(Key key) {
+        return delegate.getTokenStatus(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(long key) {
+        return delegate.getTokenStatus(key);
+    }
+
+    /**
+     * Records the round-trip time of a call which was allowed by this {@link RateLimiter} and completed.
+     * 
+     * @param rttInNanos
+     *            the non-negative round-trip time in nanoseconds
+     */
+    public void recordLatency(long rttInNanos) {
+        rttSum.add(rttInNanos);
+        rttCount.increment();
+        maybeUpdate();
+    }
+
+    /**
+     * Records a call which was allowed by this {@link RateLimiter} but was dropped by the dependency, or timed out,
+     * which is taken as a sign of overload.
+     */
+    public void recordDropped() {
+        dropped.increment();
+        maybeUpdate();
+    }
+
+    /**
+     * Recalculates the limit if the current sample window has ended, and this thread is the first to notice.
+     */
+    private void maybeUpdate() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+
+        if (now - start < sampleWindow) {
+            return;
+        }
+
+        if (dropped.sum() == 0 && rttCount.sum() < minimumSamples) {
+            return;
+        }
+
+        if (!windowStart.compareAndSet(start, now)) {
+            return;
+        }
+
+        /* Drops and samples recorded while the window is drained count in this window or the next, never in neither. */
+        long drops = dropped.sumThenReset();
+        long count = rttCount.sumThenReset();
+        long sum = rttSum.sumThenReset();
+
+        update(count == 0 ? 0 : (double) sum / count, drops > 0);
+    }
+
+    /**
+     * Calculates and applies a new limit.
+     * 
+     * @param rtt
+     *            the average round-trip time in nanoseconds over the window, or zero if there were no samples
+     * @param overloaded
+     *            true if calls were dropped during the window
+     */
+    private void update(double rtt, boolean overloaded) {
+        double limit = this.estimatedLimit;
+        double target;
+
+        if (overloaded) {
+            target = limit / 2;
+        } else {
+            if (rtt <= 0) {
+                return;
+            }
+
+            double longTerm = this.longRtt;
+
+            if (longTerm == 0) {
+                longTerm = rtt;
+            } else {
+                longTerm += (rtt - longTerm) / longWindows;
+
+                /* Let the long-term average catch up quickly once latency has recovered. */
+                if (longTerm > rtt * 2) {
+                    longTerm *= 0.95;
+                }
+            }
+
+            this.longRtt = longTerm;
+            this.shortRtt = rtt;
+
+            double gradient = Math.max(0.5, Math.min(1.0, longTerm / rtt));
+            target = limit * gradient + Math.sqrt(limit);
+        }
+
+        double smoothed = limit * (1 - smoothing) + target * smoothing;
+        smoothed = Math.max(minLimit, Math.min(maxLimit, smoothed));
+
+        this.estimatedLimit = smoothed;
+        delegate.setAllowedRequests((int) smoothed);
+    }
+
+    /**
+     * Returns the current limit, as set on the decorated {@link RateLimiter}.
+     * 
+     * @return the allowed requests value
+     */
+    public int getAllowedRequests() {
+        return delegate.getAllowedRequests();
+    }
+
+    /**
+     * Sets the current limit, from which further adjustments are made. It is kept between the minimum and maximum
+     * limits.
+     * 
+     * @param allowedRequests
+     *            the positive allowed requests value
+     */
+    public void setAllowedRequests(int allowedRequests) {
+        if (allowedRequests > 0) {
+            int limit = Math.max(minLimit, Math.min(maxLimit, allowedRequests));
+            this.estimatedLimit = limit;
+            delegate.setAllowedRequests(limit);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setDuration(int durationInSeconds) {
+        delegate.setDuration(durationInSeconds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return delegate.isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEnabled(boolean enabled) {
+        delegate.setEnabled(enabled);
+    }
+
+    /**
+     * Returns the smallest limit which will be set.
+     * 
+     * @return the minimum limit
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * Sets the smallest limit which will be set.
+     * 
+     * @param minLimit
+     *            the minimum limit to set - positive integer, no larger than the maximum limit
+     */
+    public void setMinLimit(int minLimit) {
+        if (minLimit > 0 && minLimit <= maxLimit) {
+            this.minLimit = minLimit;
+        }
+    }
+
+    /**
+     * Returns the largest limit which will be set.
+     * 
+     * @return the maximum limit
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Sets the largest limit which will be set.
+     * 
+     * @param maxLimit
+     *            the maximum limit to set - no smaller than the minimum limit
+     */
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit >= minLimit) {
+            this.maxLimit = maxLimit;
+        }
+    }
+
+    /**
+     * Returns the length of each sample window in milliseconds.
+     * 
+     * @return the sample window
+     */
+    public long getSampleWindowInMillis() {
+        return sampleWindow / 1000000L;
+    }
+
+    /**
+     * Sets the length of each sample window in milliseconds. The limit is recalculated at most once per window.
+     * 
+     * @param sampleWindowInMillis
+     *            the sample window to set - positive integer
+     */
+    public void setSampleWindowInMillis(long sampleWindowInMillis) {
+        if (sampleWindowInMillis > 0) {
+            this.sampleWindow = sampleWindowInMillis * 1000000L;
+        }
+    }
+
+    /**
+     * Returns the minimum number of samples in a window before the limit is recalculated.
+     * 
+     * @return the minimum number of samples
+     */
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    /**
+     * Sets the minimum number of samples in a window before the limit is recalculated. Windows with fewer samples are
+     * extended until there are enough, unless calls have been dropped.
+     * 
+     * @param minimumSamples
+     *            the minimum number of samples to set - positive integer
+     */
+    public void setMinimumSamples(int minimumSamples) {
+        if (minimumSamples > 0) {
+            this.minimumSamples = minimumSamples;
+        }
+    }
+
+    /**
+     * Returns the weight given to each newly calculated limit.
+     * 
+     * @return the smoothing factor
+     */
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * Sets the weight given to each newly calculated limit. Higher values react faster and oscillate more.
+     * 
+     * @param smoothing
+     *            the smoothing factor to set - greater than 0 and at most 1
+     */
+    public void setSmoothing(double smoothing) {
+        if (smoothing > 0 && smoothing <= 1) {
+            this.smoothing = smoothing;
+        }
+    }
+
+    /**
+     * Returns the long-term average round-trip time in nanoseconds against which each window is compared.
+     * 
+     * @return the long-term round-trip time, or zero before the first window
+     */
+    public long getLongTermRttInNanos() {
+        return (long) longRtt;
+    }
+
+    /**
+     * Returns the average round-trip time in nanoseconds of the last complete window.
+     * 
+     * @return the recent round-trip time, or zero before the first window
+     */
+    public long getRecentRttInNanos() {
+        return (long) shortRtt;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Interface defining how clients can limit the number of requests in flight at the same time, per {@link Key}. Where a
+ * {@link RateLimiter} limits how many requests start in each service slot, a {@link Bulkhead} limits how many have
+ * started and not yet finished, so a slow dependency cannot tie up every thread.
+ * </p>
+ * 
+ * <p>
+ * The {@link Permit} returned is also a {@link Token}, so a {@link Bulkhead} can be checked alongside a
+ * {@link RateLimiter} and a {@code CircuitBreaker}:
+ * </p>
+ * 
+ * <pre>
+ * if (rateLimiter.getToken(key).isUsable()) {
+ *     Permit permit = bulkhead.tryAcquire(key);
+ * 
+ *     if (permit.isUsable()) {
+ *         try {
+ *             circuitBreaker.before();
+ *             // call the dependency
+ *         } finally {
+ *             permit.release();
+ *         }
+ *     }
+ * }
+ * </pre>
+ * 
+ * @author jabley
+ * 
+ */
+public interface Bulkhead extends Enablable {
+
+    /**
+     * Returns a usable {@link Permit} if fewer than the maximum number of concurrent calls are in flight for the
+     * specified {@link Key}, otherwise an unusable {@link Permit}. Never blocks.
+     * 
+     * @param key
+     *            the {@link Key}, which should have a good implementation of {@link #equals(Object)} and
+     *            {@link #hashCode()}
+     * @return a non-null {@link Permit}
+     */
+    Permit tryAcquire(Key key);
+
+    /**
+     * Returns a usable {@link Permit} as soon as fewer than the maximum number of concurrent calls are in flight for the
+     * specified {@link Key}, or an unusable {@link Permit} if that does not happen within the timeout.
+     * 
+     * @param key
+     *            the {@link Key}, which should have a good implementation of {@link #equals(Object)} and
+     *            {@link #hashCode()}
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the non-null {@link TimeUnit} of the timeout
+     * @return a non-null {@link Permit}
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    Permit tryAcquire(Key key, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Returns the number of calls in flight for the specified {@link Key}.
+     * 
+     * @param key
+     *            the {@link Key}
+     * @return a non-negative count
+     */
+    int getConcurrentCalls(Key key);
+
+    /**
+     * Returns the number of calls in flight across all {@link Key}s.
+     * 
+     * @return a non-negative count
+     */
+    long getConcurrentCalls();
+
+    /**
+     * Returns the positive maximum number of concurrent calls allowed per {@link Key}.
+     * 
+     * @return the maximum concurrent calls value
+     */
+    int getMaxConcurrentCalls();
+
+    /**
+     * Sets the positive maximum number of concurrent calls allowed per {@link Key}. Calls already in flight are not
+     * affected.
+     * 
+     * @param maxConcurrentCalls
+     *            the maximum concurrent calls value
+     */
+    void setMaxConcurrentCalls(int maxConcurrentCalls);
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * Source of the current time for {@link RateLimiter}s and {@link TokenStore}s, so that they can be run against a
+ * {@link VirtualClock} when replaying recorded traffic.
+ * 
+ * @author jabley
+ * 
+ */
+public interface Clock {
+
+    /**
+     * Returns the current time.
+     * 
+     * @return the time from the epoch in milliseconds
+     */
+    long currentTimeMillis();
+
+}
@@ -3,6 +3,9 @@
  */
 package com.eternus.ratelimit;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
@@ -14,7 +17,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * @author jabley
  *
  */
-public class CoarseMemoryTokenStore implements TokenStore {
+public class CoarseMemoryTokenStore implements SnapshotTokenStore {
 
     /**
      * The Map used to keep track of {@link StoreEntry} instances.
@@ -26,10 +29,26 @@ public class CoarseMemoryTokenStore implements TokenStore {
      */
     private final Lock lock;
 
+    /**
+     * The non-null {@link Clock} which the entries expire by.
+     */
+    private final Clock clock;
+
     /**
      * Creates a new {@link CoarseMemoryTokenStore}.
      */
     public CoarseMemoryTokenStore() {
+        this(SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new {@link CoarseMemoryTokenStore} whose entries expire by the specified {@link Clock}.
+     * 
+     * @param clock
+     *            the non-null {@link Clock}
+     */
+    public CoarseMemoryTokenStore(Clock clock) {
+        this.clock = clock;
         this.cache = new HashMap<Key, StoreEntry>();
         this.lock = new ReentrantLock();
     }
@@ -39,7 +58,7 @@ public class CoarseMemoryTokenStore implements TokenStore {
      */
     public StoreEntry create(Key key, int timeToLiveInSecs) {
         try {
-            StoreEntryImpl result = new StoreEntryImpl(timeToLiveInSecs);
+            StoreEntryImpl result = new StoreEntryImpl(timeToLiveInSecs, clock);
             cache.put(key, result);
             return result;
         } finally {
@@ -70,4 +89,46 @@ public class CoarseMemoryTokenStore implements TokenStore {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public int writeSnapshot(OutputStream out, KeyCodec codec) throws IOException {
+        Map<Key, StoreEntry> copy;
+        lock.lock();
+
+        try {
+
+            /* Copy the map so that the lock is not held while writing. */
+            copy = new HashMap<Key, StoreEntry>(cache);
+        } finally {
+            lock.unlock();
+        }
+
+        SnapshotFormat.Writer writer = new SnapshotFormat.Writer(out, codec, clock);
+
+        for (Map.Entry<Key, StoreEntry> entry : copy.entrySet()) {
+            if (entry.getValue() != null) {
+                writer.write(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return writer.finish();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readSnapshot(InputStream in, KeyCodec codec) throws IOException {
+        Map<Key, StoreEntry> entries = SnapshotFormat.read(in, codec, clock);
+        lock.lock();
+
+        try {
+            cache.putAll(entries);
+        } finally {
+            lock.unlock();
+        }
+
+        return entries.size();
+    }
+
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Streams the records of a file written by a {@link DecisionRecorder}, oldest first. Torn and empty slots are skipped.
+ * The file can be read while it is still being written, in which case the newest records may be missed.
+ * </p>
+ * 
+ * <p>
+ * Run from the command line with the path of the file, it prints the records as comma-separated values.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class DecisionLogReader implements Closeable {
+
+    /**
+     * The non-null mapped file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The non-null file.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * The number of records in the ring.
+     */
+    private final int capacity;
+
+    /**
+     * The slot of the oldest record.
+     */
+    private final int start;
+
+    /**
+     * The number of slots read so far.
+     */
+    private int read;
+
+    /**
+     * Opens a decision log for reading.
+     * 
+     * @param path
+     *            the non-null file written by a {@link DecisionRecorder}
+     * @throws IOException
+     *             if the file cannot be read or is not a decision log
+     */
+    public DecisionLogReader(File path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+
+        try {
+            long size = this.file.length();
+
+            if (size < DecisionRecorder.HEADER_SIZE) {
+                throw new IOException("Not a decision log: " + path);
+            }
+
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt(0) != DecisionRecorder.MAGIC || buffer.getInt(4) != DecisionRecorder.VERSION
+                    || buffer.getInt(12) != DecisionRecorder.RECORD_SIZE) {
+                throw new IOException("Not a decision log: " + path);
+            }
+
+            this.capacity = buffer.getInt(8);
+
+            if (capacity <= 0 || DecisionRecorder.HEADER_SIZE + (long) capacity * DecisionRecorder.RECORD_SIZE > size) {
+                throw new IOException("Truncated decision log: " + path);
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+
+        this.start = findOldest();
+    }
+
+    /**
+     * Returns the next record, or null if there are no more.
+     * 
+     * @return a {@link Decision} - may be null
+     */
+    public Decision next() {
+        while (read < capacity) {
+            int slot = (start + read++) % capacity;
+            int offset = DecisionRecorder.HEADER_SIZE + slot * DecisionRecorder.RECORD_SIZE;
+            long seq = (long) DecisionRecorder.SEQUENCES.getAcquire(buffer, offset + DecisionRecorder.SEQUENCE_OFFSET)
+                    - 1;
+
+            if (seq < 0 || seq % capacity != slot) {
+                continue;
+            }
+
+            Decision result = new Decision(seq, buffer.getLong(offset + DecisionRecorder.TIMESTAMP_OFFSET), buffer
+                    .getLong(offset + DecisionRecorder.KEY_OFFSET), buffer.getLong(offset
+                    + DecisionRecorder.STATUS_OFFSET));
+
+            /* The slot was overwritten while it was being read. The fence keeps the reads above before the check. */
+            VarHandle.acquireFence();
+
+            if (buffer.getLong(offset + DecisionRecorder.SEQUENCE_OFFSET) - 1 != seq) {
+                continue;
+            }
+
+            return result;
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Returns the slot after the newest record, which holds the oldest record once the ring has wrapped.
+     * 
+     * @return the slot to start reading from
+     */
+    private int findOldest() {
+        long newest = -1;
+        int result = 0;
+
+        for (int slot = 0; slot < capacity; ++slot) {
+            long stored = buffer.getLong(DecisionRecorder.HEADER_SIZE + slot * DecisionRecorder.RECORD_SIZE
+                    + DecisionRecorder.SEQUENCE_OFFSET);
+
+            /* A record being written is negated, but still the newest in its slot. */
+            long seq = Math.abs(stored) - 1;
+
+            if (seq > newest) {
+                newest = seq;
+                result = (slot + 1) % capacity;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Prints the records of the decision log named by the first argument as comma-separated values.
+     * 
+     * @param args
+     *            the path of the decision log
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: DecisionLogReader <file>");
+            System.exit(1);
+        }
+
+        DecisionLogReader reader = new DecisionLogReader(new File(args[0]));
+
+        try {
+            PrintStream out = System.out;
+            out.println("sequence,timestamp,key,allowed,remaining,resetMillis");
+
+            for (Decision decision = reader.next(); decision != null; decision = reader.next()) {
+                out.println(decision.getSequence() + "," + decision.getTimestamp() + "," + decision.getKeyHash() + ","
+                        + decision.isAllowed() + "," + decision.getRemaining() + ","
+                        + TokenStatus.getMillisUntilReset(decision.getStatus()));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * A recorded decision.
+     */
+    public static final class Decision {
+
+        /**
+         * The sequence number of the record.
+         */
+        private final long sequence;
+
+        /**
+         * The time of the decision from the epoch in milliseconds.
+         */
+        private final long timestamp;
+
+        /**
+         * The hash of the key.
+         */
+        private final long keyHash;
+
+        /**
+         * The packed {@link TokenStatus}.
+         */
+        private final long status;
+
+        /**
+         * Creates a new {@link Decision}.
+         * 
+         * @param sequence
+         *            the sequence number of the record
+         * @param timestamp
+         *            the time of the decision from the epoch in milliseconds
+         * @param keyHash
+         *            the hash of the key
+         * @param status
+         *            the packed {@link TokenStatus}
+         */
+        Decision(long sequence, long timestamp, long keyHash, long status) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.keyHash = keyHash;
+            this.status = status;
+        }
+
+        /**
+         * Returns the sequence number of the record, which counts every decision recorded.
+         * 
+         * @return a non-negative sequence number
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Returns the time of the decision.
+         * 
+         * @return the time from the epoch in milliseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the hash of the key, or the key itself for primitive keys.
+         * 
+         * @return the key hash
+         */
+        public long getKeyHash() {
+            return keyHash;
+        }
+
+        /**
+         * Returns the packed {@link TokenStatus} of the decision.
+         * 
+         * @return the packed status
+         */
+        public long getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns true if the request was allowed.
+         * 
+         * @return true if the request was allowed, otherwise false
+         */
+        public boolean isAllowed() {
+            return TokenStatus.isUsable(status);
+        }
+
+        /**
+         * Returns the number of requests the key had remaining after the decision.
+         * 
+         * @return a non-negative count
+         */
+        public int getRemaining() {
+            return TokenStatus.getRemaining(status);
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Records every allow / deny decision of a {@link RateLimiter} into a memory-mapped ring file, for billing and abuse
+ * investigations. Recording a decision is a few stores into the mapped file, with no locking, allocation or system
+ * call, so it can be left on in production. The operating system writes the pages out; {@link DecisionLogReader} reads
+ * them back.
+ * </p>
+ * 
+ * <p>
+ * Each record is {@value #RECORD_SIZE} bytes: a sequence number, the time of the decision, the hash of the key and the
+ * packed {@link TokenStatus}, which holds the outcome, the requests remaining and the time until reset. Writers claim
+ * sequence numbers from an atomic counter, so any number of threads may record at once; once the ring is full the
+ * oldest records are overwritten. A writer claims its slot by a compare-and-set of the slot's sequence number from the
+ * finished record of an earlier lap to a marker for its own, and publishes the record by storing its sequence number
+ * with release semantics, which the reader loads with acquire semantics.
+ * </p>
+ * 
+ * <p>
+ * If writers lap the ring while a record is still being written, the later writer finds the slot taken and drops its
+ * record rather than tear the other one; {@link #getDroppedCount()} counts these, and a ring which drops records
+ * needs a larger capacity. The reader skips slots whose sequence number does not match the slot, or which changed
+ * while it read them.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class DecisionRecorder implements Closeable {
+
+    /**
+     * The first four bytes of a decision log.
+     */
+    static final int MAGIC = 0x524C4443;
+
+    /**
+     * The version of the file format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the file header in bytes.
+     */
+    static final int HEADER_SIZE = 64;
+
+    /**
+     * The size of each record in bytes.
+     */
+    static final int RECORD_SIZE = 32;
+
+    /**
+     * The offset within a record of the sequence number, which is stored plus one so that 0 means empty, and negated
+     * while the record is being written.
+     */
+    static final int SEQUENCE_OFFSET = 0;
+
+    /**
+     * The offset within a record of the time of the decision.
+     */
+    static final int TIMESTAMP_OFFSET = 8;
+
+    /**
+     * The offset within a record of the hash of the key.
+     */
+    static final int KEY_OFFSET = 16;
+
+    /**
+     * The offset within a record of the packed {@link TokenStatus}.
+     */
+    static final int STATUS_OFFSET = 24;
+
+    /**
+     * The big-endian view of the file as longs, used to claim and publish the sequence numbers.
+     */
+    static final VarHandle SEQUENCES = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * The non-null mapped file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The non-null file, kept open while recording.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * The number of records in the ring minus one - the capacity is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The next sequence number to claim.
+     */
+    private final AtomicLong sequence;
+
+    /**
+     * The number of records dropped because their slot was still being written by an earlier lap.
+     */
+    private final LongAdder dropped;
+
+    /**
+     * Creates a new {@link DecisionRecorder} which writes to the specified file, replacing anything in it.
+     * 
+     * @param path
+     *            the non-null file to write
+     * @param capacity
+     *            the positive number of records kept, rounded up to a power of two
+     * @throws IOException
+     *             if the file cannot be created and mapped
+     */
+    public DecisionRecorder(File path, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE / 2) {
+            throw new IllegalArgumentException("capacity is out of range");
+        }
+
+        int records = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        int size = HEADER_SIZE + records * RECORD_SIZE;
+
+        this.file = new RandomAccessFile(path, "rw");
+
+        try {
+            this.file.setLength(0);
+            this.file.setLength(size);
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.putInt(4, VERSION);
+        this.buffer.putInt(8, records);
+        this.buffer.putInt(12, RECORD_SIZE);
+        this.buffer.putLong(16, System.currentTimeMillis());
+        this.mask = records - 1;
+        this.sequence = new AtomicLong();
+        this.dropped = new LongAdder();
+    }
+
+    /**
+     * Records a decision.
+     * 
+     * @param keyHash
+     *            the hash of the key, or the key itself for primitive keys
+     * @param status
+     *            the packed {@link TokenStatus} of the decision
+     * @param timeInMillis
+     *            the time of the decision from the epoch in milliseconds, by the {@link Clock} which made it
+     */
+    public void record(long keyHash, long status, long timeInMillis) {
+        long seq = this.sequence.getAndIncrement();
+        int offset = HEADER_SIZE + (int) (seq & mask) * RECORD_SIZE;
+        long previous = (long) SEQUENCES.getAcquire(buffer, offset + SEQUENCE_OFFSET);
+
+        /*
+         * Only take over a finished record from an earlier lap. A slot still being written, or already holding a later
+         * record, means the ring was lapped mid-write, so drop this record rather than tear that one.
+         */
+        if (previous < 0 || previous > seq
+                || !SEQUENCES.compareAndSet(buffer, offset + SEQUENCE_OFFSET, previous, -(seq + 1))) {
+            dropped.increment();
+            return;
+        }
+
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timeInMillis);
+        buffer.putLong(offset + KEY_OFFSET, keyHash);
+        buffer.putLong(offset + STATUS_OFFSET, status);
+        SEQUENCES.setRelease(buffer, offset + SEQUENCE_OFFSET, seq + 1);
+    }
+
+    /**
+     * Returns the number of decisions recorded, including any which have since been overwritten.
+     * 
+     * @return a non-negative count
+     */
+    public long getRecordedCount() {
+        return this.sequence.get();
+    }
+
+    /**
+     * Returns the number of decisions dropped because the ring was lapped while their slot was still being written.
+     * 
+     * @return a non-negative count
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of records kept in the ring.
+     * 
+     * @return the positive capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Forces the recorded decisions out to the file.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Flushes the recorded decisions and closes the file. The mapping itself is released when this recorder is garbage
+     * collected, so no more decisions may be recorded.
+     * 
+     * @throws IOException
+     *             if the file cannot be closed
+     */
+    public void close() throws IOException {
+        flush();
+        file.close();
+    }
+
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * {@link RateLimiter} which shares the limit of a decorated {@link RateLimiter} fairly between {@link Key}s when it is
+ * saturated. Rather than letting whichever threads happen to win the race take the tokens, callers of
+ * {@link #getToken(Key, long, TimeUnit)} wait in a FIFO queue for their {@link Key}, and a dispatcher thread serves the
+ * queues round-robin, one request per {@link Key} per turn. A noisy {@link Key} therefore only delays itself.
+ * </p>
+ * 
+ * <p>
+ * The queues are {@link ConcurrentLinkedQueue}s and waiting threads park, so enqueueing, granting and cancelling are
+ * all lock-free. While nobody is waiting, a request which the decorated {@link RateLimiter} allows is served
+ * immediately on the calling thread; once anyone is waiting, new requests join the queues. The non-blocking
+ * {@link #getToken(Key)} never jumps the queues: it is denied while anyone is waiting. A queue is discarded once it has
+ * no waiters, so idle {@link Key}s are not retained.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class FairQueueingRateLimiter implements RateLimiter {
+
+    /**
+     * State of a {@link Waiter} which has not been served.
+     */
+    private static final int WAITING = 0;
+
+    /**
+     * State of a {@link Waiter} which has been given a token.
+     */
+    private static final int GRANTED = 1;
+
+    /**
+     * State of a {@link Waiter} which gave up.
+     */
+    private static final int CANCELLED = 2;
+
+    /**
+     * Flag which enables / disables this {@link RateLimiter} implementation.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * The non-null decorated {@link RateLimiter}, whose limit is shared.
+     */
+    private final RateLimiter delegate;
+
+    /**
+     * The non-null {@link Key} under which the shared limit is counted.
+     */
+    private final Key sharedKey;
+
+    /**
+     * The per-{@link Key} queues with waiters, or about to have them.
+     */
+    private final ConcurrentMap<Key, KeyQueue> queues;
+
+    /**
+     * The queues with waiters, in round-robin order. A queue is in here at most once.
+     */
+    private final Queue<KeyQueue> active;
+
+    /**
+     * The number of waiting requests.
+     */
+    private final AtomicInteger waiting;
+
+    /**
+     * The time in nanoseconds that the dispatcher waits before asking the delegate again after a denial.
+     */
+    private volatile long retryInterval = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Set once the dispatcher thread has been started.
+     */
+    private final AtomicBoolean started;
+
+    /**
+     * The dispatcher thread, once started.
+     */
+    private volatile Thread dispatcher;
+
+    /**
+     * Set once this {@link RateLimiter} has been shut down.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new {@link FairQueueingRateLimiter}.
+     * 
+     * @param delegate
+     *            the non-null {@link RateLimiter} whose limit is shared
+     * @param sharedKey
+     *            the non-null {@link Key} under which the delegate counts every request
+     */
+    public FairQueueingRateLimiter(RateLimiter delegate, Key sharedKey) {
+        if (delegate == null || sharedKey == null) {
+            throw new IllegalArgumentException("delegate and sharedKey cannot be null");
+        }
+        this.delegate = delegate;
+        this.sharedKey = sharedKey;
+        this.queues = new ConcurrentHashMap<Key, KeyQueue>();
+        this.active = new ConcurrentLinkedQueue<KeyQueue>();
+        this.waiting = new AtomicInteger();
+        this.started = new AtomicBoolean();
+    }
+
+    /**
+     * Returns a usable {@link Token} if nobody is waiting and the decorated {@link RateLimiter} allows the request.
+     * Never blocks.
+     * 
+     * @param key
+     *            the {@link Key}
+     * @return a non-null {@link Token}
+     */
+    public Token getToken(Key key) {
+        if (!enabled) {
+            return TokenInstance.USABLE;
+        }
+
+        if (waiting.get() > 0) {
+            return TokenInstance.UNUSABLE;
+        }
+
+        return delegate.getToken(sharedKey);
+    }
+
+    /**
+     * Returns a usable {@link Token} once the request has reached the front of the queue for its {@link Key} and the
+     * dispatcher has obtained a token for it, or an unusable {@link Token} if that does not happen within the
+     * timeout.
+     * 
+     * @param key
+     *            the {@link Key}, which should have a good implementation of {@link #equals(Object)} and
+     *            {@link #hashCode()}
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the non-null {@link TimeUnit} of the timeout
+     * @return a non-null {@link Token}
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting
+     */
+    public Token getToken(Key key, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!enabled) {
+            return TokenInstance.USABLE;
+        }
+
+        if (waiting.get() == 0 && delegate.getToken(sharedKey).isUsable()) {
+            return TokenInstance.USABLE;
+        }
+
+        if (shutdown) {
+            return TokenInstance.UNUSABLE;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Waiter waiter = new Waiter(Thread.currentThread());
+        KeyQueue queue = queueFor(key);
+
+        waiting.incrementAndGet();
+        queue.waiters.offer(waiter);
+        activate(queue);
+        startDispatcher();
+
+        try {
+            for (;;) {
+                if (waiter.get() == GRANTED) {
+                    return TokenInstance.USABLE;
+                }
+
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0 || shutdown) {
+                    break;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+                if (Thread.interrupted()) {
+                    if (waiter.compareAndSet(WAITING, CANCELLED)) {
+                        throw new InterruptedException();
+                    }
+
+                    /* Granted just as we were interrupted, so keep the token and the interrupt. */
+                    Thread.currentThread().interrupt();
+                    return TokenInstance.USABLE;
+                }
+            }
+
+            return waiter.compareAndSet(WAITING, CANCELLED) ? TokenInstance.UNUSABLE : TokenInstance.USABLE;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops the dispatcher thread and wakes the requests still waiting, which are denied.
+     */
+    public void shutdown() {
+        shutdown = true;
+        Thread thread = dispatcher;
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+
+        /* A queue being discarded may still be in the round-robin order after it has left the map. */
+        for (KeyQueue queue : queues.values()) {
+            queue.wakeAll();
+        }
+
+        for (KeyQueue queue : active) {
+            queue.wakeAll();
+        }
+    }
+
+    /**
+     * Returns the number of {@link Key}s with a queue, which are those with waiting requests.
+     * 
+     * @return a non-negative count
+     */
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    /**
+     * Returns the number of requests waiting for a token.
+     * 
+     * @return a non-negative count
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * Returns the time in milliseconds that the dispatcher waits before asking the decorated {@link RateLimiter}
+     * again after it denied a request.
+     * 
+     * @return the retry interval
+     */
+    public long getRetryIntervalInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(retryInterval);
+    }
+
+    /**
+     * Sets the time in milliseconds that the dispatcher waits before asking the decorated {@link RateLimiter} again
+     * after it denied a request.
+     * 
+     * @param retryIntervalInMillis
+     *            the retry interval to set - positive integer
+     */
+    public void setRetryIntervalInMillis(long retryIntervalInMillis) {
+        if (retryIntervalInMillis > 0) {
+            this.retryInterval = TimeUnit.MILLISECONDS.toNanos(retryIntervalInMillis);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getAllowedRequests() {
+        return delegate.getAllowedRequests();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAllowedRequests(int allowedRequests) {
+        delegate.setAllowedRequests(allowedRequests);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setDuration(int durationInSeconds) {
+        delegate.setDuration(durationInSeconds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the queue for the specified {@link Key}, creating it if needed.
+     * 
+     * @param key
+     *            the non-null {@link Key}
+     * @return a non-null {@link KeyQueue}
+     */
+    private KeyQueue queueFor(Key key) {
+        KeyQueue queue = queues.get(key);
+
+        if (queue == null) {
+            KeyQueue created = new KeyQueue(key);
+            queue = queues.putIfAbsent(key, created);
+
+            if (queue == null) {
+                queue = created;
+            }
+        }
+
+        return queue;
+    }
+
+    /**
+     * Puts the queue in the round-robin order if it is not already there, and wakes the dispatcher.
+     * 
+     * @param queue
+     *            the non-null {@link KeyQueue}
+     */
+    private void activate(KeyQueue queue) {
+        if (queue.scheduled.compareAndSet(false, true)) {
+            active.offer(queue);
+        }
+
+        Thread thread = dispatcher;
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Starts the dispatcher thread the first time it is needed.
+     */
+    private void startDispatcher() {
+        if (started.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Dispatcher(), "fair-queueing-dispatcher");
+            thread.setDaemon(true);
+            dispatcher = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * A request waiting for a token, whose value is its state.
+     */
+    private static final class Waiter extends AtomicInteger {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The non-null waiting thread.
+         */
+        final Thread thread;
+
+        /**
+         * Creates a new {@link Waiter}.
+         * 
+         * @param thread
+         *            the non-null waiting thread
+         */
+        Waiter(Thread thread) {
+            super(WAITING);
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * The FIFO queue of waiting requests for one {@link Key}.
+     */
+    private static final class KeyQueue {
+
+        /**
+         * The non-null {@link Key} this queue is for.
+         */
+        final Key key;
+
+        /**
+         * The waiting requests, oldest first.
+         */
+        final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+        /**
+         * Set while this queue is in the round-robin order.
+         */
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Creates a new {@link KeyQueue}.
+         * 
+         * @param key
+         *            the non-null {@link Key} this queue is for
+         */
+        KeyQueue(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the oldest request which is still waiting, discarding any cancelled ones in front of it.
+         * 
+         * @return a {@link Waiter} - may be null
+         */
+        Waiter peekWaiting() {
+            for (;;) {
+                Waiter head = waiters.peek();
+
+                if (head == null || head.get() == WAITING) {
+                    return head;
+                }
+
+                waiters.remove(head);
+            }
+        }
+
+        /**
+         * Wakes every waiting thread, so that it can see that this {@link RateLimiter} has been shut down.
+         */
+        void wakeAll() {
+            for (Waiter waiter : waiters) {
+                LockSupport.unpark(waiter.thread);
+            }
+        }
+    }
+
+    /**
+     * Serves the active queues round-robin, one request per turn.
+     */
+    private final class Dispatcher implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+
+            /* Set when a token has been obtained but its request was cancelled before it could be granted. */
+            boolean spare = false;
+
+            while (!shutdown) {
+                KeyQueue queue = active.poll();
+
+                if (queue == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                Waiter waiter = queue.peekWaiting();
+
+                if (waiter != null) {
+                    while (!spare && !shutdown && waiter.get() == WAITING) {
+                        if (delegate.getToken(sharedKey).isUsable()) {
+                            spare = true;
+                        } else {
+                            LockSupport.parkNanos(this, retryInterval);
+                        }
+                    }
+
+                    if (spare && waiter.compareAndSet(WAITING, GRANTED)) {
+                        spare = false;
+                        LockSupport.unpark(waiter.thread);
+                    }
+
+                    queue.waiters.remove(waiter);
+                }
+
+                requeue(queue);
+            }
+        }
+
+        /**
+         * Puts the queue back at the end of the round-robin order if it still has waiters, otherwise discards it.
+         * 
+         * @param queue
+         *            the non-null {@link KeyQueue} which has just had its turn
+         */
+        private void requeue(KeyQueue queue) {
+            if (queue.peekWaiting() != null) {
+                active.offer(queue);
+                return;
+            }
+
+            queue.scheduled.set(false);
+            queues.remove(queue.key, queue);
+
+            /*
+             * A request may have joined after the check, and seen the queue as still scheduled. It is served from this
+             * queue even though the queue has left the map, while later requests for the Key start a new one.
+             */
+            if (queue.peekWaiting() != null && queue.scheduled.compareAndSet(false, true)) {
+                active.offer(queue);
+            }
+        }
+    }
+
+}
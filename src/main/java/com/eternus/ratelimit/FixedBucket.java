@@ -26,10 +26,33 @@ package com.eternus.ratelimit;
  * limit, then abort with a rate-limiting error, otherwise increment the counter and service the request.
  * </p>
  * 
+ * <p>
+ * Requests can carry a {@link Priority}. With a {@link #setReservedFraction(float) reserved fraction}, lower classes
+ * reach their limit before higher ones; each decision is a single compare-and-set against the ceiling for the class,
+ * and denied requests are not counted. Entries from a {@link TokenStore} outside this package can only be incremented,
+ * so with those a denied request is still counted, and the {@link TokenStatus} of a decision is
+ * {@link TokenStatus#unknown(boolean) unknown} beyond whether the request may proceed.
+ * </p>
+ * 
+ * <p>
+ * With a {@link #setWarmUpPeriodInMillis(long) warm-up period}, the limit ramps up linearly from a
+ * {@link #setColdFraction(float) cold fraction} of the allowed requests to all of them, starting from the first request
+ * and again whenever the limiter has been idle for a whole warm-up period, so that a freshly started or idle JVM is not
+ * hit with the full rate. The ramp scales the ceiling used in the same compare-and-set, so it costs no extra lookups.
+ * </p>
+ * 
+ * <p>
+ * With {@link #setMaxBurstCredit(int) burst credit}, requests a client leaves unused in a service slot are carried
+ * over, up to a cap, so that a spiky client can use its average allowance. The credit is worked out lazily from the
+ * slots that have passed when the client next makes a request. Credit lives in the client's entry, so a client with
+ * no entry starts with no credit: however often the {@link TokenStore} drops and recreates entries, a client is never
+ * allowed more than the allowed requests plus the maximum burst credit in a service slot.
+ * </p>
+ * 
  * @author jabley
  * 
  */
-public class FixedBucket implements RateLimiter {
+public class FixedBucket implements PriorityRateLimiter {
 
     /**
      * Flag which enables / disables this {@link RateLimiter} implementation.
@@ -46,11 +69,67 @@ public class FixedBucket implements RateLimiter {
      */
     private int allowedRequests = 1;
 
+    /**
+     * The fraction of the allowed requests reserved for classes above {@link Priority#LOW}.
+     */
+    private volatile float reservedFraction;
+
+    /**
+     * The number of allowed requests after which requests of each {@link Priority} are denied, indexed by ordinal.
+     */
+    private volatile int[] ceilings = computeCeilings(1, 0);
+
+    /**
+     * The time in milliseconds over which the limit ramps up, or 0 for no warm-up.
+     */
+    private volatile long warmUpPeriod;
+
+    /**
+     * The fraction of the allowed requests permitted at the start of the warm-up period.
+     */
+    private volatile float coldFraction = 0.25f;
+
+    /**
+     * The time from the epoch in milliseconds when the current warm-up period started.
+     */
+    private volatile long warmUpStart;
+
+    /**
+     * The time from the epoch in milliseconds of the latest request, used to detect idleness during warm-up.
+     */
+    private volatile long lastRequest;
+
+    /**
+     * The maximum number of unused requests carried over between service slots, or 0 for none.
+     */
+    private volatile int maxBurstCredit;
+
+    /**
+     * The number of service slots that entries live for when burst credit is on, beyond those needed to build up the
+     * full credit. Credit is lost when an entry expires, so this keeps an idle client's credit for a while.
+     */
+    private static final int CREDIT_LIFETIME_SLOTS = 8;
+
+    /**
+     * The non-null {@link Clock} used to time service slots and warm-up.
+     */
+    private Clock clock = SystemClock.INSTANCE;
+
     /**
      * The non-null {@link TokenStore}.
      */
     private TokenStore cache;
 
+    /**
+     * The optional {@link HotKeyTracker} told about each request - may be null.
+     */
+    private volatile HotKeyTracker hotKeys;
+
+    /**
+     * The optional {@link DecisionRecorder} told about each decision - may be null.
+     */
+    private volatile DecisionRecorder decisions;
+
     /**
      * Sets the non-null {@link TokenStore} implementation used.
      * 
@@ -61,6 +140,57 @@ public class FixedBucket implements RateLimiter {
         this.cache = cache;
     }
 
+    /**
+     * Sets the {@link Clock} used to time service slots and warm-up, which should also be the one used by the
+     * {@link TokenStore}. The default is the {@link SystemClock}.
+     * 
+     * @param clock
+     *            a non-null {@link Clock}
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the {@link HotKeyTracker} which is told about each request and whether it was denied. A value of
+     * {@code null} turns tracking off.
+     * 
+     * @param hotKeys
+     *            a {@link HotKeyTracker} - may be null
+     */
+    public void setHotKeyTracker(HotKeyTracker hotKeys) {
+        this.hotKeys = hotKeys;
+    }
+
+    /**
+     * Returns the {@link HotKeyTracker} which is told about each request.
+     * 
+     * @return a {@link HotKeyTracker} - may be null
+     */
+    public HotKeyTracker getHotKeyTracker() {
+        return this.hotKeys;
+    }
+
+    /**
+     * Sets the {@link DecisionRecorder} which records each decision, with the hash code of the {@link Key}, or the
+     * value of a primitive key or {@link LongKey}. A value of {@code null} turns recording off.
+     * 
+     * @param decisions
+     *            a {@link DecisionRecorder} - may be null
+     */
+    public void setDecisionRecorder(DecisionRecorder decisions) {
+        this.decisions = decisions;
+    }
+
+    /**
+     * Returns the {@link DecisionRecorder} which records each decision.
+     * 
+     * @return a {@link DecisionRecorder} - may be null
+     */
+    public DecisionRecorder getDecisionRecorder() {
+        return this.decisions;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -74,6 +204,7 @@ public class FixedBucket implements RateLimiter {
     public void setAllowedRequests(int allowedRequests) {
         if (allowedRequests > 0) {
             this.allowedRequests = allowedRequests;
+            this.ceilings = computeCeilings(allowedRequests, this.reservedFraction);
         }
     }
 
@@ -81,26 +212,328 @@ public class FixedBucket implements RateLimiter {
      * {@inheritDoc}
      */
     public Token getToken(Key key) {
-        Token result = TokenInstance.UNUSABLE;
+        return getToken(key, Priority.CRITICAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(long key) {
+        return getToken(key, Priority.CRITICAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(Key key) {
+        return getTokenStatus(key, Priority.CRITICAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(long key) {
+        return getTokenStatus(key, Priority.CRITICAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(Key key, Priority priority) {
+        return TokenStatus.toToken(getTokenStatus(key, priority));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(long key, Priority priority) {
+        return TokenStatus.toToken(getTokenStatus(key, priority));
+    }
 
+    /**
+     * Makes the same decision as {@link #getToken(Key, Priority)}, but returns it as a {@link TokenStatus} which also
+     * reports how many requests remain in the service slot and when it resets.
+     * 
+     * @param key
+     *            the {@link Key}
+     * @param priority
+     *            the non-null {@link Priority} of the request
+     * @return the packed {@link TokenStatus}
+     */
+    public long getTokenStatus(Key key, Priority priority) {
         if (!enabled) {
-            result = TokenInstance.USABLE;
-        } else {
+            return TokenStatus.UNLIMITED;
+        }
 
-            StoreEntry entry = cache.get(key);
+        StoreEntry entry = cache.get(key);
 
-            if (entry == null) {
+        if (entry == null) {
 
-                /* Populate the entry, thus unlocking any underlying mutex */
-                entry = cache.create(key, timeToLive);
-            }
+            /* Populate the entry, thus unlocking any underlying mutex */
+            entry = cache.create(key, entryTimeToLive());
+        }
 
-            /* Increment the client count and see whether we have hit the maximum allowed clients yet. */
-            int current = entry.incrementAndGet();
+        long now = clock.currentTimeMillis();
+        long result = decide(entry, priority, now);
+        HotKeyTracker tracker = this.hotKeys;
 
-            if (current <= allowedRequests) {
-                result = TokenInstance.USABLE;
+        if (tracker != null) {
+            tracker.record(key, !TokenStatus.isUsable(result));
+        }
+
+        DecisionRecorder recorder = this.decisions;
+
+        if (recorder != null) {
+            recorder.record(key instanceof LongKey ? ((LongKey) key).longValue() : key.hashCode(), result, now);
+        }
+
+        return result;
+    }
+
+    /**
+     * Makes the same decision as {@link #getToken(long, Priority)}, but returns it as a {@link TokenStatus}.
+     * 
+     * @param key
+     *            the key
+     * @param priority
+     *            the non-null {@link Priority} of the request
+     * @return the packed {@link TokenStatus}
+     */
+    public long getTokenStatus(long key, Priority priority) {
+        if (!enabled) {
+            return TokenStatus.UNLIMITED;
+        }
+
+        StoreEntry entry = cache.get(key);
+
+        if (entry == null) {
+            entry = cache.create(key, entryTimeToLive());
+        }
+
+        long now = clock.currentTimeMillis();
+        long result = decide(entry, priority, now);
+        HotKeyTracker tracker = this.hotKeys;
+
+        if (tracker != null) {
+            tracker.record(key, !TokenStatus.isUsable(result));
+        }
+
+        DecisionRecorder recorder = this.decisions;
+
+        if (recorder != null) {
+            recorder.record(key, result, now);
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the client against the entry only if it is below the ceiling for its priority.
+     * 
+     * @param entry
+     *            the non-null {@link StoreEntry} for the client
+     * @param priority
+     *            the non-null {@link Priority} of the request
+     * @param now
+     *            the current time from the epoch in milliseconds
+     * @return the packed {@link TokenStatus}
+     */
+    private long decide(StoreEntry entry, Priority priority, long now) {
+        int ceiling = warmUp(ceilings[priority.ordinal()], now);
+
+        if (!(entry instanceof StoreEntryImpl)) {
+
+            /* Entries from other stores can only be counted, so there is no budget and nothing more to report. */
+            return TokenStatus.unknown(entry.incrementAndGet() <= ceiling);
+        }
+
+        StoreEntryImpl counted = (StoreEntryImpl) entry;
+        int credit = this.maxBurstCredit;
+
+        if (credit > 0) {
+            int allowed = this.allowedRequests;
+            int reserved = Math.max(allowed - ceiling, 0);
+            long slot = timeToLive * 1000L;
+            int left = counted.takeWithCredit(allowed, credit, reserved, slot, now);
+            boolean usable = left >= 0;
+
+            /* Entries live for whole slots, so their expiry is also the end of a slot. */
+            long reset = (counted.getExpiry() - now) % slot;
+            return TokenStatus.pack(usable, (usable ? left : ~left) - reserved, reset);
+        }
+
+        boolean usable = counted.incrementIfBelow(ceiling);
+        return TokenStatus.pack(usable, ceiling - counted.getCount(), counted.getExpiry() - now);
+    }
+
+    /**
+     * Returns the time to live in seconds for new entries, which outlive the service slot when burst credit is on.
+     * 
+     * @return the positive time to live in seconds
+     */
+    private int entryTimeToLive() {
+        int credit = this.maxBurstCredit;
+
+        if (credit == 0) {
+            return timeToLive;
+        }
+
+        int allowed = this.allowedRequests;
+        int slotsToFill = (credit + allowed - 1) / allowed;
+        return timeToLive * CREDIT_LIFETIME_SLOTS * Math.max(slotsToFill, 1);
+    }
+
+    /**
+     * Returns the maximum number of unused requests carried over between service slots.
+     * 
+     * @return the maximum burst credit, or 0 if there is none
+     */
+    public int getMaxBurstCredit() {
+        return this.maxBurstCredit;
+    }
+
+    /**
+     * Sets the maximum number of unused requests which a client can carry over between service slots and use on top of
+     * the allowed requests. Entries created before the change keep their lifetime. The default of 0 turns burst credit
+     * off. Credit is only kept by entries from the {@link TokenStore}s in this package, which keep each entry for its
+     * whole time to live of several service slots; entries from other stores are counted without credit.
+     * 
+     * @param maxBurstCredit
+     *            the maximum burst credit to set - non-negative
+     */
+    public void setMaxBurstCredit(int maxBurstCredit) {
+        if (maxBurstCredit >= 0) {
+            this.maxBurstCredit = maxBurstCredit;
+        }
+    }
+
+    /**
+     * Returns the ceiling scaled for the progress of the warm-up period, restarting the period if the limiter has been
+     * idle for a whole one.
+     * 
+     * @param ceiling
+     *            the configured ceiling
+     * @param now
+     *            the current time from the epoch in milliseconds
+     * @return the ceiling to apply now - at least 1
+     */
+    private int warmUp(int ceiling, long now) {
+        long period = this.warmUpPeriod;
+
+        if (period == 0) {
+            return ceiling;
+        }
+
+        long last = this.lastRequest;
+
+        if (now != last) {
+            if (now - last >= period) {
+                this.warmUpStart = now;
             }
+
+            /* Written about once per millisecond rather than on every request. */
+            this.lastRequest = now;
+        }
+
+        long elapsed = now - this.warmUpStart;
+
+        if (elapsed >= period) {
+            return ceiling;
+        }
+
+        float cold = this.coldFraction;
+        float fraction = cold + (1 - cold) * elapsed / period;
+        return Math.max((int) (ceiling * fraction), 1);
+    }
+
+    /**
+     * Returns the time in milliseconds over which the limit ramps up after startup or idleness.
+     * 
+     * @return the warm-up period, or 0 if there is none
+     */
+    public long getWarmUpPeriodInMillis() {
+        return this.warmUpPeriod;
+    }
+
+    /**
+     * Sets the time in milliseconds over which the limit ramps up from the cold fraction to the allowed requests. The
+     * ramp starts with the next request, and again after the limiter has been idle for the whole period. The default
+     * of 0 turns warm-up off.
+     * 
+     * @param warmUpPeriodInMillis
+     *            the warm-up period to set - non-negative
+     */
+    public void setWarmUpPeriodInMillis(long warmUpPeriodInMillis) {
+        if (warmUpPeriodInMillis >= 0) {
+            this.lastRequest = 0;
+            this.warmUpPeriod = warmUpPeriodInMillis;
+        }
+    }
+
+    /**
+     * Returns the fraction of the allowed requests permitted at the start of the warm-up period.
+     * 
+     * @return the cold fraction
+     */
+    public float getColdFraction() {
+        return this.coldFraction;
+    }
+
+    /**
+     * Sets the fraction of the allowed requests permitted at the start of the warm-up period. The default is 0.25.
+     * 
+     * @param coldFraction
+     *            the cold fraction to set - between 0 and 1
+     */
+    public void setColdFraction(float coldFraction) {
+        if (coldFraction >= 0 && coldFraction <= 1) {
+            this.coldFraction = coldFraction;
+        }
+    }
+
+    /**
+     * Returns the fraction of the allowed requests reserved for classes above {@link Priority#LOW}.
+     * 
+     * @return the reserved fraction
+     */
+    public float getReservedFraction() {
+        return this.reservedFraction;
+    }
+
+    /**
+     * Sets the fraction of the allowed requests reserved for higher priority classes. {@link Priority#CRITICAL}
+     * requests may use all of the allowed requests and {@link Priority#LOW} requests all but this fraction, with the
+     * classes in between spaced evenly. For example, with 100 allowed requests and a fraction of 0.3, the classes are
+     * denied once 100, 90, 80 and 70 requests have been allowed in the service slot. The default of 0 treats every
+     * class alike.
+     * 
+     * @param reservedFraction
+     *            the reserved fraction to set - between 0 and 1
+     */
+    public void setReservedFraction(float reservedFraction) {
+        if (reservedFraction >= 0 && reservedFraction <= 1) {
+            this.reservedFraction = reservedFraction;
+            this.ceilings = computeCeilings(this.allowedRequests, reservedFraction);
+        }
+    }
+
+    /**
+     * Returns the number of allowed requests in a service slot after which requests of each {@link Priority} are
+     * denied.
+     * 
+     * @param allowedRequests
+     *            the positive allowed requests value
+     * @param reservedFraction
+     *            the reserved fraction
+     * @return a non-null array indexed by {@link Priority#ordinal()}
+     */
+    private static int[] computeCeilings(int allowedRequests, float reservedFraction) {
+        Priority[] priorities = Priority.values();
+        int[] result = new int[priorities.length];
+        int steps = Math.max(priorities.length - 1, 1);
+
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = allowedRequests - (int) Math.round((double) allowedRequests * reservedFraction * i / steps);
         }
 
         return result;
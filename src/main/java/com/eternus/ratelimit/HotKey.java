@@ -0,0 +1,136 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+/**
+ * Immutable report of a frequently requested key, as estimated by a {@link HotKeyTracker}.
+ *
+ * @author jabley
+ *
+ */
+public final class HotKey {
+
+    /**
+     * The non-null key.
+     */
+    private final Object key;
+
+    /**
+     * The estimated number of requests.
+     */
+    private final long requestCount;
+
+    /**
+     * The maximum amount by which {@link #requestCount} may be overestimated.
+     */
+    private final long error;
+
+    /**
+     * The estimated number of denied requests.
+     */
+    private final long denialCount;
+
+    /**
+     * The time in milliseconds over which the counts were collected.
+     */
+    private final long elapsedMillis;
+
+    /**
+     * Creates a new {@link HotKey}.
+     *
+     * @param key
+     *            the non-null key
+     * @param requestCount
+     *            the estimated number of requests
+     * @param error
+     *            the maximum overestimation of the request count
+     * @param denialCount
+     *            the estimated number of denied requests
+     * @param elapsedMillis
+     *            the time in milliseconds over which the counts were collected
+     */
+    HotKey(Object key, long requestCount, long error, long denialCount, long elapsedMillis) {
+        this.key = key;
+        this.requestCount = requestCount;
+        this.error = error;
+        this.denialCount = denialCount;
+        this.elapsedMillis = Math.max(elapsedMillis, 1);
+    }
+
+    /**
+     * Returns the key.
+     *
+     * @return the non-null key
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the estimated number of requests for the key.
+     *
+     * @return a non-negative count
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the maximum amount by which {@link #getRequestCount()} may overestimate the real number of requests.
+     *
+     * @return a non-negative count
+     */
+    public long getError() {
+        return error;
+    }
+
+    /**
+     * Returns the estimated number of denied requests for the key.
+     *
+     * @return a non-negative count
+     */
+    public long getDenialCount() {
+        return denialCount;
+    }
+
+    /**
+     * Returns the estimated number of requests per second for the key.
+     *
+     * @return a non-negative rate
+     */
+    public double getRequestRate() {
+        return requestCount * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Returns the estimated number of denied requests per second for the key.
+     *
+     * @return a non-negative rate
+     */
+    public double getDenialRate() {
+        return denialCount * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return key + " requests=" + requestCount + " (+/-" + error + ") denials=" + denialCount
+                + String.format(" rate=%.1f/s denialRate=%.1f/s", getRequestRate(), getDenialRate());
+    }
+
+}
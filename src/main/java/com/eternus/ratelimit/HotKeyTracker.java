@@ -0,0 +1,247 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * Sampled heavy-hitter tracker for the keys passed to a {@link RateLimiter}. It uses the Space-Saving algorithm
+ * (Metwally, Agrawal and El Abbadi) over a bounded number of counters, so the memory used is fixed regardless of how
+ * many distinct keys are seen.
+ * </p>
+ *
+ * <p>
+ * Only one in every {@code sampleRate} calls to {@link #record(Object, boolean)} is counted. The unsampled calls cost
+ * a thread-local random number; the sampled calls take a short lock on this tracker. Reported counts are scaled back
+ * up by the sample rate and are therefore estimates.
+ * </p>
+ *
+ * @author jabley
+ *
+ */
+public class HotKeyTracker {
+
+    /**
+     * The maximum number of keys that are monitored at any one time.
+     */
+    private final int capacity;
+
+    /**
+     * The number of calls represented by each sample - a power of two.
+     */
+    private final int sampleRate;
+
+    /**
+     * The mask applied to a random number to decide whether to sample a call.
+     */
+    private final int sampleMask;
+
+    /**
+     * The monitored counters, guarded by this.
+     */
+    private final Map<Object, Counter> counters;
+
+    /**
+     * The time from the epoch in milliseconds when tracking started, guarded by this.
+     */
+    private long startTime;
+
+    /**
+     * Creates a new {@link HotKeyTracker} which monitors 64 keys and samples one in 64 calls.
+     */
+    public HotKeyTracker() {
+        this(64, 64);
+    }
+
+    /**
+     * Creates a new {@link HotKeyTracker}.
+     *
+     * @param capacity
+     *            the positive maximum number of keys monitored at any one time
+     * @param sampleRate
+     *            the positive number of calls represented by each sample, rounded up to a power of two
+     */
+    public HotKeyTracker(int capacity, int sampleRate) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+
+        this.capacity = capacity;
+        this.sampleRate = Integer.highestOneBit(sampleRate) == sampleRate ? sampleRate : Integer
+                .highestOneBit(sampleRate) << 1;
+        this.sampleMask = this.sampleRate - 1;
+        this.counters = new HashMap<Object, Counter>(capacity * 2);
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a request for the specified key, if this call is sampled.
+     *
+     * @param key
+     *            the non-null key
+     * @param denied
+     *            true if the request was denied, otherwise false
+     */
+    public void record(Object key, boolean denied) {
+        if ((ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+            recordSample(key, denied);
+        }
+    }
+
+    /**
+     * Records a request for a primitive key. The key is only wrapped in a {@link LongKey} if the call is sampled.
+     *
+     * @param key
+     *            the key
+     * @param denied
+     *            true if the request was denied
+     */
+    public void record(long key, boolean denied) {
+        if ((ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+            recordSample(LongKey.valueOf(key), denied);
+        }
+    }
+
+    /**
+     * Returns up to {@code n} of the monitored keys, ordered with the most frequently requested first.
+     *
+     * @param n
+     *            the maximum number of keys to return
+     * @return a non-null List of {@link HotKey}s
+     */
+    public List<HotKey> getTopKeys(int n) {
+        List<HotKey> result = new ArrayList<HotKey>();
+        long elapsed;
+
+        synchronized (this) {
+            elapsed = System.currentTimeMillis() - startTime;
+
+            for (Map.Entry<Object, Counter> entry : counters.entrySet()) {
+                Counter counter = entry.getValue();
+                result.add(new HotKey(entry.getKey(), counter.count * sampleRate, counter.error * sampleRate,
+                        counter.denials * sampleRate, elapsed));
+            }
+        }
+
+        Collections.sort(result, new Comparator<HotKey>() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public int compare(HotKey o1, HotKey o2) {
+                long x = o1.getRequestCount();
+                long y = o2.getRequestCount();
+                return (x < y) ? 1 : ((x == y) ? 0 : -1);
+            }
+        });
+
+        if (result.size() > n) {
+            result = new ArrayList<HotKey>(result.subList(0, Math.max(n, 0)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards all of the monitored keys and restarts the rate calculations.
+     */
+    public synchronized void reset() {
+        counters.clear();
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of calls represented by each sample.
+     *
+     * @return the positive sample rate
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Counts a sampled request. If the key is not monitored and all of the counters are in use, the counter with the
+     * lowest count is taken over by the key, which inherits that count as its possible overestimation.
+     *
+     * @param key
+     *            the non-null key
+     * @param denied
+     *            true if the request was denied, otherwise false
+     */
+    private synchronized void recordSample(Object key, boolean denied) {
+        Counter counter = counters.get(key);
+
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter();
+            } else {
+                Object victim = null;
+
+                for (Map.Entry<Object, Counter> entry : counters.entrySet()) {
+                    if (counter == null || entry.getValue().count < counter.count) {
+                        victim = entry.getKey();
+                        counter = entry.getValue();
+                    }
+                }
+
+                counters.remove(victim);
+                counter.error = counter.count;
+                counter.denials = 0;
+            }
+
+            counters.put(key, counter);
+        }
+
+        counter.count++;
+
+        if (denied) {
+            counter.denials++;
+        }
+    }
+
+    /**
+     * Mutable counter for a monitored key.
+     */
+    private static final class Counter {
+
+        /**
+         * The number of sampled requests attributed to the key.
+         */
+        long count;
+
+        /**
+         * The maximum amount by which {@link #count} may overestimate the real number of sampled requests.
+         */
+        long error;
+
+        /**
+         * The number of sampled denied requests seen since the key was monitored.
+         */
+        long denials;
+    }
+
+}
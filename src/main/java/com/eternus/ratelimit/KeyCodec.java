@@ -0,0 +1,46 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * Converts {@link Key}s to and from bytes, so that they can be written to a {@link SnapshotTokenStore snapshot}.
+ * 
+ * @author jabley
+ * 
+ */
+public interface KeyCodec {
+
+    /**
+     * Returns the bytes for the specified {@link Key}, or null if the {@link Key} cannot be encoded and should be left
+     * out of the snapshot.
+     * 
+     * @param key
+     *            the non-null {@link Key}
+     * @return at most 65535 bytes - may be null
+     */
+    byte[] encode(Key key);
+
+    /**
+     * Returns the {@link Key} for the specified bytes, or null if they cannot be decoded and the entry should be
+     * skipped.
+     * 
+     * @param bytes
+     *            the non-null bytes returned by {@link #encode(Key)}
+     * @return a {@link Key} - may be null
+     */
+    Key decode(byte[] bytes);
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * {@link Key} which wraps a primitive long, such as an account id or an IPv4 address. It is used by
+ * {@link TokenStore}s and {@link RateLimiter}s which do not have a primitive fast path for
+ * {@link RateLimiter#getToken(long)}, so that a long key and the equivalent {@link LongKey} share the same entry.
+ * 
+ * @author jabley
+ * 
+ */
+public final class LongKey implements Key {
+
+    /**
+     * The wrapped value.
+     */
+    private final long value;
+
+    /**
+     * Creates a new {@link LongKey}.
+     * 
+     * @param value
+     *            the value to wrap
+     */
+    private LongKey(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns a {@link LongKey} for the specified value.
+     * 
+     * @param value
+     *            the value to wrap
+     * @return a non-null {@link LongKey}
+     */
+    public static LongKey valueOf(long value) {
+        return new LongKey(value);
+    }
+
+    /**
+     * Returns the wrapped value.
+     * 
+     * @return the value
+     */
+    public long longValue() {
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof LongKey && ((LongKey) obj).value == value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * {@link KeyCodec} for {@link LongKey}s, which encodes each as 8 big-endian bytes. Other {@link Key}s are left out.
+ * 
+ * @author jabley
+ * 
+ */
+public class LongKeyCodec implements KeyCodec {
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] encode(Key key) {
+        if (!(key instanceof LongKey)) {
+            return null;
+        }
+
+        long value = ((LongKey) key).longValue();
+        byte[] result = new byte[8];
+
+        for (int i = 7; i >= 0; --i) {
+            result[i] = (byte) value;
+            value >>>= 8;
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Key decode(byte[] bytes) {
+        if (bytes.length != 8) {
+            return null;
+        }
+
+        long value = 0;
+
+        for (byte b : bytes) {
+            value = (value << 8) | (b & 0xFF);
+        }
+
+        return LongKey.valueOf(value);
+    }
+
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * In-memory {@link TokenStore} for primitive long keys, which avoids creating, hashing and comparing {@link Key}
+ * objects on the {@link RateLimiter#getToken(long)} path.
+ * </p>
+ * 
+ * <p>
+ * Keys are spread over a fixed number of stripes, each guarded by its own lock and holding an open-addressing hash
+ * table of primitive keys with linear probing. As with {@link CoarseMemoryTokenStore}, a call to {@link #get(long)}
+ * which returns null keeps the lock of its stripe until the client calls {@link #create(long, int)}. Expired entries
+ * are dropped when a stripe grows.
+ * </p>
+ * 
+ * <p>
+ * {@link LongKey}s use the same tables; other {@link Key}s are passed to a {@link MemoryTokenStore}.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class LongMemoryTokenStore implements SnapshotTokenStore {
+
+    /**
+     * The number of stripes - a power of two.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * The initial capacity of each stripe - a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The non-null stripes.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The non-null {@link TokenStore} used for {@link Key}s which are not {@link LongKey}s.
+     */
+    private final MemoryTokenStore objectKeys;
+
+    /**
+     * The non-null {@link Clock} which the entries expire by.
+     */
+    private final Clock clock;
+
+    /**
+     * Creates a new {@link LongMemoryTokenStore}.
+     */
+    public LongMemoryTokenStore() {
+        this(SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new {@link LongMemoryTokenStore} whose entries expire by the specified {@link Clock}.
+     * 
+     * @param clock
+     *            the non-null {@link Clock}
+     */
+    public LongMemoryTokenStore(Clock clock) {
+        this.clock = clock;
+        this.stripes = new Stripe[STRIPES];
+
+        for (int i = 0; i < STRIPES; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+
+        this.objectKeys = new MemoryTokenStore(clock);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry get(long key) {
+        int hash = hash(key);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        stripe.lock();
+
+        StoreEntry result = stripe.get(key, hash);
+
+        if (!(result == null || result.isExpired())) {
+
+            /* Cache hit with a good entry - use it. */
+            stripe.unlock();
+            return result;
+        }
+
+        /* Cache miss or expired. Keep the lock and the client will call create(long, int). */
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry create(long key, int timeToLiveInSecs) {
+        int hash = hash(key);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+
+        try {
+            StoreEntryImpl result = new StoreEntryImpl(timeToLiveInSecs, clock);
+            stripe.put(key, hash, result);
+            return result;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry get(Key key) {
+        if (key instanceof LongKey) {
+            return get(((LongKey) key).longValue());
+        }
+
+        return objectKeys.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry create(Key key, int timeToLiveInSecs) {
+        if (key instanceof LongKey) {
+            return create(((LongKey) key).longValue(), timeToLiveInSecs);
+        }
+
+        return objectKeys.create(key, timeToLiveInSecs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int writeSnapshot(OutputStream out, KeyCodec codec) throws IOException {
+        SnapshotFormat.Writer writer = new SnapshotFormat.Writer(out, codec, clock);
+
+        for (Stripe stripe : stripes) {
+            long[] keys;
+            StoreEntry[] entries;
+            stripe.lock();
+
+            try {
+
+                /* Copy one stripe at a time, so that the others carry on serving requests. */
+                keys = stripe.keys.clone();
+                entries = stripe.entries.clone();
+            } finally {
+                stripe.unlock();
+            }
+
+            for (int i = 0; i < entries.length; ++i) {
+                if (entries[i] != null) {
+                    writer.write(LongKey.valueOf(keys[i]), entries[i]);
+                }
+            }
+        }
+
+        objectKeys.writeEntries(writer);
+        return writer.finish();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readSnapshot(InputStream in, KeyCodec codec) throws IOException {
+        Map<Key, StoreEntry> entries = SnapshotFormat.read(in, codec, clock);
+        Map<Key, StoreEntry> others = new HashMap<Key, StoreEntry>();
+
+        for (Map.Entry<Key, StoreEntry> entry : entries.entrySet()) {
+            if (entry.getKey() instanceof LongKey) {
+                long key = ((LongKey) entry.getKey()).longValue();
+                int hash = hash(key);
+                Stripe stripe = stripes[hash & (STRIPES - 1)];
+                stripe.lock();
+
+                try {
+                    stripe.put(key, hash, entry.getValue());
+                } finally {
+                    stripe.unlock();
+                }
+            } else {
+                others.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        objectKeys.putAll(others);
+        return entries.size();
+    }
+
+    /**
+     * Returns a well-mixed hash of the specified key. The low bits choose the stripe and the high bits the slot within
+     * it.
+     * 
+     * @param key
+     *            the key
+     * @return the hash
+     */
+    private static int hash(long key) {
+
+        /* The finalizer of MurmurHash3's 64-bit variant. */
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Open-addressing hash table of primitive keys, which is also the lock guarding it.
+     */
+    private static final class Stripe extends ReentrantLock {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The keys, valid where the matching entry is non-null.
+         */
+        private long[] keys = new long[INITIAL_CAPACITY];
+
+        /**
+         * The entries, or null for empty slots.
+         */
+        private StoreEntry[] entries = new StoreEntry[INITIAL_CAPACITY];
+
+        /**
+         * The number of non-null entries.
+         */
+        private int size;
+
+        /**
+         * Returns the entry for the specified key. Must be called with the lock held.
+         * 
+         * @param key
+         *            the key
+         * @param hash
+         *            the hash of the key
+         * @return a {@link StoreEntry} - may be null
+         */
+        StoreEntry get(long key, int hash) {
+            int mask = entries.length - 1;
+
+            for (int i = slot(hash, mask);; i = (i + 1) & mask) {
+                StoreEntry entry = entries[i];
+
+                if (entry == null || keys[i] == key) {
+                    return entry;
+                }
+            }
+        }
+
+        /**
+         * Stores the entry for the specified key, replacing any previous entry. Must be called with the lock held.
+         * 
+         * @param key
+         *            the key
+         * @param hash
+         *            the hash of the key
+         * @param entry
+         *            the non-null {@link StoreEntry}
+         */
+        void put(long key, int hash, StoreEntry entry) {
+            if ((size + 1) * 2 > entries.length) {
+                rehash();
+            }
+
+            int mask = entries.length - 1;
+            int i = slot(hash, mask);
+
+            while (entries[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+
+            if (entries[i] == null) {
+                ++size;
+            }
+
+            keys[i] = key;
+            entries[i] = entry;
+        }
+
+        /**
+         * Drops the expired entries, and doubles the capacity if the table is still at least a quarter full.
+         */
+        private void rehash() {
+            long[] oldKeys = keys;
+            StoreEntry[] oldEntries = entries;
+            int live = 0;
+
+            for (StoreEntry entry : oldEntries) {
+                if (entry != null && !entry.isExpired()) {
+                    ++live;
+                }
+            }
+
+            int capacity = live * 4 >= oldEntries.length ? oldEntries.length * 2 : oldEntries.length;
+            keys = new long[capacity];
+            entries = new StoreEntry[capacity];
+            size = 0;
+
+            int mask = capacity - 1;
+
+            for (int j = 0; j < oldEntries.length; ++j) {
+                StoreEntry entry = oldEntries[j];
+
+                if (entry != null && !entry.isExpired()) {
+                    int i = slot(hash(oldKeys[j]), mask);
+
+                    while (entries[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+
+                    keys[i] = oldKeys[j];
+                    entries[i] = entry;
+                    ++size;
+                }
+            }
+        }
+
+        /**
+         * Returns the first slot to probe for a hash.
+         * 
+         * @param hash
+         *            the hash of the key
+         * @param mask
+         *            the capacity minus one
+         * @return the slot index
+         */
+        private static int slot(int hash, int mask) {
+            return (hash >>> 6) & mask;
+        }
+    }
+
+}
@@ -15,6 +15,10 @@
  */
 package com.eternus.ratelimit;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
@@ -23,12 +27,15 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import com.google.common.collect.MapMaker;
 
 /**
- * {@link TokenStore} implementation that is purely in-memory.
+ * {@link TokenStore} implementation that is purely in-memory. Entries expire by the store's {@link Clock}, which may be
+ * a {@link VirtualClock}, and are kept until then however long they live. Expired entries are replaced when their
+ * {@link Key} is next seen, and the rest are swept out while a new entry is created, at most once per time to live
+ * of the entries being created. Entries may also be dropped early under memory pressure.
  * 
  * @author jabley
  * 
  */
-public class MemoryTokenStore implements TokenStore {
+public class MemoryTokenStore implements SnapshotTokenStore {
 
     /**
      * The Map used to keep track of {@link StoreEntry} instances.
@@ -45,11 +52,35 @@ public class MemoryTokenStore implements TokenStore {
      */
     private final Lock w;
 
+    /**
+     * The non-null {@link Clock} which the entries expire by.
+     */
+    private final Clock clock;
+
+    /**
+     * The time from the epoch in milliseconds after which the next entry to be created sweeps out the expired entries.
+     * Guarded by the write lock.
+     */
+    private long nextSweep;
+
     /**
      * Creates a new {@link MemoryTokenStore}.
      */
     public MemoryTokenStore() {
-        this.cache = new MapMaker().softValues().expiration(120, TimeUnit.SECONDS).makeMap();
+        this(SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new {@link MemoryTokenStore} whose entries expire by the specified {@link Clock}.
+     * 
+     * @param clock
+     *            the non-null {@link Clock}
+     */
+    public MemoryTokenStore(Clock clock) {
+        this.clock = clock;
+        this.cache = new MapMaker().softValues().makeMap();
+        this.nextSweep = Long.MIN_VALUE;
+
         ReadWriteLock lock = new ReentrantReadWriteLock();
         this.r = lock.readLock();
         this.w = lock.writeLock();
@@ -87,7 +118,14 @@ public class MemoryTokenStore implements TokenStore {
      */
     public StoreEntry create(Key key, int timeToLive) {
         try {
-            StoreEntryImpl entry = new StoreEntryImpl(timeToLive);
+            long now = clock.currentTimeMillis();
+
+            if (now > nextSweep) {
+                sweep();
+                nextSweep = now + TimeUnit.SECONDS.toMillis(timeToLive);
+            }
+
+            StoreEntryImpl entry = new StoreEntryImpl(timeToLive, clock);
             cache.put(key, entry);
             return entry;
         } finally {
@@ -95,6 +133,75 @@ public class MemoryTokenStore implements TokenStore {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public int writeSnapshot(OutputStream out, KeyCodec codec) throws IOException {
+        SnapshotFormat.Writer writer = new SnapshotFormat.Writer(out, codec, clock);
+        writeEntries(writer);
+        return writer.finish();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readSnapshot(InputStream in, KeyCodec codec) throws IOException {
+        Map<Key, StoreEntry> entries = SnapshotFormat.read(in, codec, clock);
+        putAll(entries);
+        return entries.size();
+    }
+
+    /**
+     * Writes a record for each live entry. The map is concurrent, so it is walked without taking the locks.
+     * 
+     * @param writer
+     *            the non-null {@link SnapshotFormat.Writer}
+     * @throws IOException
+     *             if a record cannot be written
+     */
+    void writeEntries(SnapshotFormat.Writer writer) throws IOException {
+        for (Map.Entry<Key, StoreEntry> entry : this.cache.entrySet()) {
+            writer.write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Stores all of the entries at once, replacing any existing entries for the same {@link Key}s.
+     * 
+     * @param entries
+     *            the non-null Map of entries
+     */
+    void putAll(Map<Key, StoreEntry> entries) {
+        w.lock();
+
+        try {
+            this.cache.putAll(entries);
+        } finally {
+            w.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries held, including any expired ones which have not yet been replaced or swept out.
+     * 
+     * @return the non-negative number of entries
+     */
+    int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * Removes the expired entries. The map is concurrent, so readers carry on while it is walked; the write lock is
+     * expected to be held, so that no entry is created meanwhile.
+     */
+    private void sweep() {
+        for (Iterator<StoreEntry> i = this.cache.values().iterator(); i.hasNext();) {
+            if (i.next().isExpired()) {
+                i.remove();
+            }
+        }
+    }
+
     /**
      * If no usable entry in the cache, then we assume that the write lock is held prior to calling this method.
      * 
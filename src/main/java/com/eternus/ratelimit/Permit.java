@@ -0,0 +1,33 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * {@link Token} returned by a {@link Bulkhead}. A usable {@link Permit} holds one of the concurrent calls allowed for
+ * its {@link Key} until it is released.
+ * 
+ * @author jabley
+ * 
+ */
+public interface Permit extends Token {
+
+    /**
+     * Gives back the concurrent call held by this {@link Permit}. Clients must call this exactly once for each usable
+     * {@link Permit}, typically in a finally block. Releasing an unusable {@link Permit} has no effect.
+     */
+    void release();
+
+}
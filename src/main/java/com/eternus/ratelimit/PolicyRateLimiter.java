@@ -0,0 +1,182 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * <p>
+ * {@link RateLimiter} which passes each request to the {@link RateLimiter} chosen for its {@link Key} by a
+ * {@link PolicyTable}, so that thousands of per-route or per-plan limits can be served by one instance.
+ * </p>
+ * 
+ * <p>
+ * The {@link PolicyTable} is held in a volatile field and can be replaced at any time with
+ * {@link #setPolicyTable(PolicyTable)}. Requests in flight finish with the table they started with; no request waits
+ * for the swap.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class PolicyRateLimiter implements RateLimiter {
+
+    /**
+     * Flag which enables / disables this {@link RateLimiter} implementation.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * The non-null current {@link PolicyTable}.
+     */
+    private volatile PolicyTable table;
+
+    /**
+     * Creates a new {@link PolicyRateLimiter}.
+     * 
+     * @param table
+     *            the non-null initial {@link PolicyTable}
+     */
+    public PolicyRateLimiter(PolicyTable table) {
+        setPolicyTable(table);
+    }
+
+    /**
+     * Returns the current {@link PolicyTable}.
+     * 
+     * @return a non-null {@link PolicyTable}
+     */
+    public PolicyTable getPolicyTable() {
+        return this.table;
+    }
+
+    /**
+     * Replaces the {@link PolicyTable}, and with it every rule and cached resolution, in one step.
+     * 
+     * @param table
+     *            the non-null new {@link PolicyTable}
+     */
+    public void setPolicyTable(PolicyTable table) {
+        if (table == null) {
+            throw new IllegalArgumentException("table cannot be null");
+        }
+        this.table = table;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(Key key) {
+        if (!enabled) {
+            return TokenInstance.USABLE;
+        }
+
+        return table.resolve(key).getToken(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(long key) {
+        if (!enabled) {
+            return TokenInstance.USABLE;
+        }
+
+        return table.resolve(key).getToken(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(Key key) {
+        if (!enabled) {
+            return TokenStatus.UNLIMITED;
+        }
+
+        return table.resolve(key).getTokenStatus(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(long key) {
+        if (!enabled) {
+            return TokenStatus.UNLIMITED;
+        }
+
+        return table.resolve(key).getTokenStatus(key);
+    }
+
+    /**
+     * Returns the allowed requests of the default {@link RateLimiter}.
+     * 
+     * @return the allowed requests value
+     */
+    public int getAllowedRequests() {
+        return defaultLimiter().getAllowedRequests();
+    }
+
+    /**
+     * Sets the allowed requests of the default {@link RateLimiter}.
+     * 
+     * @param allowedRequests
+     *            the positive allowed requests value
+     */
+    public void setAllowedRequests(int allowedRequests) {
+        defaultLimiter().setAllowedRequests(allowedRequests);
+    }
+
+    /**
+     * Returns the duration of the default {@link RateLimiter}.
+     * 
+     * @return the positive number of seconds
+     */
+    public int getDuration() {
+        return defaultLimiter().getDuration();
+    }
+
+    /**
+     * Sets the duration of the default {@link RateLimiter}.
+     * 
+     * @param durationInSeconds
+     *            the positive duration
+     */
+    public void setDuration(int durationInSeconds) {
+        defaultLimiter().setDuration(durationInSeconds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} for keys which match no rule.
+     * 
+     * @return a non-null {@link RateLimiter}
+     */
+    private RateLimiter defaultLimiter() {
+        return table.getDefaultLimiter();
+    }
+
+}
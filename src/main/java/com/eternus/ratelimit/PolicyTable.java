@@ -0,0 +1,384 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Immutable table of rules which chooses the {@link RateLimiter} for a {@link Key}, by the {@link Key}'s
+ * {@link Object#toString()}. An exact rule wins over a prefix rule, a longer prefix wins over a shorter one, and keys
+ * which match no rule use the default {@link RateLimiter}.
+ * </p>
+ * 
+ * <p>
+ * The prefix rules are compiled into a trie whose nodes keep their children in sorted arrays, so resolving a key walks
+ * the string once without allocating. Each resolution is also cached per {@link Key}, up to a maximum number of keys;
+ * since the cache belongs to the table, replacing the table discards it along with the old rules. Primitive keys are
+ * resolved by walking their decimal digits, with the exact rules which are numbers kept in a sorted array, so they
+ * need neither a {@link Key} nor the cache.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public final class PolicyTable {
+
+    /**
+     * The default maximum number of cached resolutions.
+     */
+    private static final int DEFAULT_MAXIMUM_CACHE_SIZE = 100000;
+
+    /**
+     * The exact rules.
+     */
+    private final Map<String, RateLimiter> exact;
+
+    /**
+     * The sorted values of the exact rules whose keys are numbers.
+     */
+    private final long[] exactNumbers;
+
+    /**
+     * The {@link RateLimiter}s of the exact rules whose keys are numbers, in the same order as the values.
+     */
+    private final RateLimiter[] exactNumberLimiters;
+
+    /**
+     * The root of the prefix trie.
+     */
+    private final Node root;
+
+    /**
+     * The {@link RateLimiter} for keys which match no rule.
+     */
+    private final RateLimiter defaultLimiter;
+
+    /**
+     * The resolutions made so far.
+     */
+    private final ConcurrentMap<Key, RateLimiter> resolved;
+
+    /**
+     * The maximum number of cached resolutions.
+     */
+    private final int maximumCacheSize;
+
+    /**
+     * Creates a new {@link PolicyTable} which caches up to 100000 resolutions.
+     * 
+     * @param exact
+     *            the exact rules, from key to {@link RateLimiter} - may be null
+     * @param prefixes
+     *            the prefix rules, from key prefix to {@link RateLimiter} - may be null
+     * @param defaultLimiter
+     *            the non-null {@link RateLimiter} for keys which match no rule
+     */
+    public PolicyTable(Map<String, ? extends RateLimiter> exact, Map<String, ? extends RateLimiter> prefixes,
+            RateLimiter defaultLimiter) {
+        this(exact, prefixes, defaultLimiter, DEFAULT_MAXIMUM_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new {@link PolicyTable}.
+     * 
+     * @param exact
+     *            the exact rules, from key to {@link RateLimiter} - may be null
+     * @param prefixes
+     *            the prefix rules, from key prefix to {@link RateLimiter} - may be null
+     * @param defaultLimiter
+     *            the non-null {@link RateLimiter} for keys which match no rule
+     * @param maximumCacheSize
+     *            the non-negative maximum number of cached resolutions
+     */
+    public PolicyTable(Map<String, ? extends RateLimiter> exact, Map<String, ? extends RateLimiter> prefixes,
+            RateLimiter defaultLimiter, int maximumCacheSize) {
+        if (defaultLimiter == null) {
+            throw new IllegalArgumentException("defaultLimiter cannot be null");
+        }
+
+        this.defaultLimiter = defaultLimiter;
+        this.exact = exact == null ? new HashMap<String, RateLimiter>() : new HashMap<String, RateLimiter>(exact);
+        TreeMap<Long, RateLimiter> numbers = new TreeMap<Long, RateLimiter>();
+
+        for (Map.Entry<String, RateLimiter> rule : this.exact.entrySet()) {
+            Long number = parseNumber(rule.getKey());
+
+            if (number != null) {
+                numbers.put(number, rule.getValue());
+            }
+        }
+
+        this.exactNumbers = new long[numbers.size()];
+        this.exactNumberLimiters = new RateLimiter[numbers.size()];
+        int i = 0;
+
+        for (Map.Entry<Long, RateLimiter> rule : numbers.entrySet()) {
+            exactNumbers[i] = rule.getKey().longValue();
+            exactNumberLimiters[i] = rule.getValue();
+            ++i;
+        }
+
+        TreeMap<String, RateLimiter> sorted = new TreeMap<String, RateLimiter>();
+
+        if (prefixes != null) {
+            sorted.putAll(prefixes);
+        }
+
+        RateLimiter empty = sorted.get("");
+        this.root = compile(sorted, "", empty != null ? empty : defaultLimiter);
+        this.resolved = new ConcurrentHashMap<Key, RateLimiter>();
+        this.maximumCacheSize = Math.max(maximumCacheSize, 0);
+    }
+
+    /**
+     * Returns the {@link RateLimiter} for the specified {@link Key}.
+     * 
+     * @param key
+     *            the non-null {@link Key}
+     * @return a non-null {@link RateLimiter}
+     */
+    public RateLimiter resolve(Key key) {
+        RateLimiter result = resolved.get(key);
+
+        if (result == null) {
+            result = resolve(key.toString());
+
+            if (resolved.size() < maximumCacheSize) {
+                resolved.putIfAbsent(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} for the specified key, without using the cache.
+     * 
+     * @param key
+     *            the non-null key
+     * @return a non-null {@link RateLimiter}
+     */
+    public RateLimiter resolve(String key) {
+        RateLimiter result = exact.get(key);
+
+        if (result != null) {
+            return result;
+        }
+
+        Node node = root;
+        result = node.limiter;
+
+        for (int i = 0, n = key.length(); i < n; ++i) {
+            node = node.child(key.charAt(i));
+
+            if (node == null) {
+                break;
+            }
+
+            if (node.limiter != null) {
+                result = node.limiter;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} for the specified primitive key, as {@link #resolve(String)} would for its decimal
+     * representation, without allocating or using the cache.
+     * 
+     * @param key
+     *            the key
+     * @return a non-null {@link RateLimiter}
+     */
+    public RateLimiter resolve(long key) {
+        int i = Arrays.binarySearch(exactNumbers, key);
+
+        if (i >= 0) {
+            return exactNumberLimiters[i];
+        }
+
+        Node node = root;
+        RateLimiter result = node.limiter;
+
+        if (key < 0) {
+            node = node.child('-');
+
+            if (node == null) {
+                return result;
+            }
+
+            if (node.limiter != null) {
+                result = node.limiter;
+            }
+        }
+
+        long divisor = 1;
+
+        while (key / divisor <= -10 || key / divisor >= 10) {
+            divisor *= 10;
+        }
+
+        for (; divisor > 0; divisor /= 10) {
+            node = node.child((char) ('0' + Math.abs(key / divisor % 10)));
+
+            if (node == null) {
+                break;
+            }
+
+            if (node.limiter != null) {
+                result = node.limiter;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} for keys which match no rule.
+     * 
+     * @return a non-null {@link RateLimiter}
+     */
+    public RateLimiter getDefaultLimiter() {
+        return defaultLimiter;
+    }
+
+    /**
+     * Returns the number of cached resolutions.
+     * 
+     * @return a non-negative count
+     */
+    public int getCacheSize() {
+        return resolved.size();
+    }
+
+    /**
+     * Returns the number which the specified key is the decimal representation of.
+     * 
+     * @param key
+     *            the non-null key
+     * @return the number, or null if the key is not exactly {@link Long#toString(long)} of a number
+     */
+    private static Long parseNumber(String key) {
+        try {
+            long number = Long.parseLong(key);
+            return Long.toString(number).equals(key) ? Long.valueOf(number) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compiles the sorted prefix rules which start with the specified prefix into a trie node.
+     * 
+     * @param rules
+     *            the non-null sorted rules which start with {@code prefix}
+     * @param prefix
+     *            the non-null prefix which leads to this node
+     * @param limiter
+     *            the {@link RateLimiter} for this node - may be null
+     * @return a non-null {@link Node}
+     */
+    private static Node compile(TreeMap<String, RateLimiter> rules, String prefix, RateLimiter limiter) {
+        Map<Character, TreeMap<String, RateLimiter>> byChar = new TreeMap<Character, TreeMap<String, RateLimiter>>();
+        int depth = prefix.length();
+
+        for (Map.Entry<String, RateLimiter> rule : rules.entrySet()) {
+            String key = rule.getKey();
+
+            if (key.length() > depth) {
+                Character c = Character.valueOf(key.charAt(depth));
+                TreeMap<String, RateLimiter> group = byChar.get(c);
+
+                if (group == null) {
+                    group = new TreeMap<String, RateLimiter>();
+                    byChar.put(c, group);
+                }
+
+                group.put(key, rule.getValue());
+            }
+        }
+
+        char[] labels = new char[byChar.size()];
+        Node[] children = new Node[byChar.size()];
+        int i = 0;
+
+        for (Map.Entry<Character, TreeMap<String, RateLimiter>> group : byChar.entrySet()) {
+            String childPrefix = prefix + group.getKey().charValue();
+            labels[i] = group.getKey().charValue();
+            children[i] = compile(group.getValue(), childPrefix, group.getValue().get(childPrefix));
+            ++i;
+        }
+
+        return new Node(labels, children, limiter);
+    }
+
+    /**
+     * Immutable node of the prefix trie.
+     */
+    private static final class Node {
+
+        /**
+         * The sorted characters leading to each child.
+         */
+        private final char[] labels;
+
+        /**
+         * The children, in the same order as the labels.
+         */
+        private final Node[] children;
+
+        /**
+         * The {@link RateLimiter} of the prefix ending at this node - may be null.
+         */
+        final RateLimiter limiter;
+
+        /**
+         * Creates a new {@link Node}.
+         * 
+         * @param labels
+         *            the non-null sorted labels
+         * @param children
+         *            the non-null children
+         * @param limiter
+         *            the {@link RateLimiter} - may be null
+         */
+        Node(char[] labels, Node[] children, RateLimiter limiter) {
+            this.labels = labels;
+            this.children = children;
+            this.limiter = limiter;
+        }
+
+        /**
+         * Returns the child for the specified character.
+         * 
+         * @param c
+         *            the next character of the key
+         * @return a {@link Node} - may be null
+         */
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+}
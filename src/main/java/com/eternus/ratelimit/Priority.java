@@ -0,0 +1,46 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * The priority classes of requests passed to a {@link PriorityRateLimiter}, from the most to the least important.
+ * 
+ * @author jabley
+ * 
+ */
+public enum Priority {
+
+    /**
+     * Requests which may use all of the allowed requests, such as health checks or internal calls.
+     */
+    CRITICAL,
+
+    /**
+     * Requests from high-value clients, such as paying customers.
+     */
+    HIGH,
+
+    /**
+     * Ordinary requests.
+     */
+    NORMAL,
+
+    /**
+     * Requests which are shed first, such as crawlers or batch jobs.
+     */
+    LOW;
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * {@link RateLimiter} which reserves part of its allowed requests for higher {@link Priority} classes, so that as a
+ * service slot fills up, lower classes are denied first. Calls to {@link #getToken(Key)} are treated as
+ * {@link Priority#CRITICAL}.
+ * 
+ * @author jabley
+ * 
+ */
+public interface PriorityRateLimiter extends RateLimiter {
+
+    /**
+     * Returns a non-null {@link Token} for a request of the specified {@link Priority}.
+     * 
+     * @param key
+     *            the {@link Key}, which should have a good implementation of {@link #equals(Object)} and
+     *            {@link #hashCode()}
+     * @param priority
+     *            the non-null {@link Priority} of the request
+     * @return a non-null {@link Token}
+     */
+    Token getToken(Key key, Priority priority);
+
+    /**
+     * Returns a non-null {@link Token} for a request of the specified {@link Priority} with a primitive key.
+     * 
+     * @param key
+     *            the key
+     * @param priority
+     *            the non-null {@link Priority} of the request
+     * @return a non-null {@link Token}
+     */
+    Token getToken(long key, Priority priority);
+
+}
@@ -34,6 +34,44 @@ public interface RateLimiter extends Enablable {
      */
     Token getToken(Key key);
 
+    /**
+     * Method called by clients whose keys are already primitive longs, such as account ids or IPv4 addresses, to check
+     * whether they should service the current request or not. It is equivalent to calling {@link #getToken(Key)} with
+     * a {@link LongKey} of the same value, which is what the default implementation does; implementations can override
+     * it to avoid creating the {@link Key}.
+     * 
+     * @param key
+     *            the key
+     * @return a non-null {@link Token}
+     */
+    default Token getToken(long key) {
+        return getToken(LongKey.valueOf(key));
+    }
+
+    /**
+     * Makes the same decision as {@link #getToken(Key)}, but returns it as a {@link TokenStatus}, which can also report
+     * how many requests remain in the service slot and when it resets. The default implementation only knows whether
+     * the request may proceed, so returns an {@link TokenStatus#unknown(boolean) unknown} status.
+     * 
+     * @param key
+     *            the {@link Key}
+     * @return the packed {@link TokenStatus}
+     */
+    default long getTokenStatus(Key key) {
+        return TokenStatus.unknown(getToken(key).isUsable());
+    }
+
+    /**
+     * Makes the same decision as {@link #getToken(long)}, but returns it as a {@link TokenStatus}.
+     * 
+     * @param key
+     *            the key
+     * @return the packed {@link TokenStatus}
+     */
+    default long getTokenStatus(long key) {
+        return TokenStatus.unknown(getToken(key).isUsable());
+    }
+
     /**
      * Returns the positive number of allowed requests per service slot duration.
      * 
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * {@link Bulkhead} implementation which keeps a lock-free counting semaphore per {@link Key}. Acquiring and releasing
+ * a permit is a compare-and-set on the counter for the {@link Key}. Each usable {@link Permit} returned gives back its
+ * call at most once, so releasing it again has no effect rather than freeing a call held by someone else.
+ * </p>
+ * 
+ * <p>
+ * Threads waiting in {@link #tryAcquire(Key, long, TimeUnit)} park and are woken by the next release for their
+ * {@link Key}. Waiting is not fair: a thread calling {@link #tryAcquire(Key)} may take a released permit before a
+ * waiting thread wakes up.
+ * </p>
+ * 
+ * <p>
+ * Counters for {@link Key}s with no calls in flight are kept until {@link #evictIdle()} is called, which applications
+ * with many short-lived {@link Key}s should do periodically.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class SemaphoreBulkhead implements Bulkhead {
+
+    /**
+     * Value of a counter which has been evicted and must not be used.
+     */
+    private static final int RETIRED = -1;
+
+    /**
+     * Flag which enables / disables this {@link Bulkhead} implementation.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * The positive maximum number of concurrent calls allowed per {@link Key}.
+     */
+    private volatile int maxConcurrentCalls = 1;
+
+    /**
+     * The non-null counters, keyed by {@link Key}.
+     */
+    private final ConcurrentMap<Key, Semaphore> semaphores;
+
+    /**
+     * The number of calls in flight across all {@link Key}s.
+     */
+    private final LongAdder concurrentCalls;
+
+    /**
+     * Creates a new {@link SemaphoreBulkhead} which allows one concurrent call per {@link Key}.
+     */
+    public SemaphoreBulkhead() {
+        this.semaphores = new ConcurrentHashMap<Key, Semaphore>();
+        this.concurrentCalls = new LongAdder();
+    }
+
+    /**
+     * Creates a new {@link SemaphoreBulkhead} which allows the specified number of concurrent calls per {@link Key}.
+     * 
+     * @param maxConcurrentCalls
+     *            the positive maximum number of concurrent calls allowed per {@link Key}
+     */
+    public SemaphoreBulkhead(int maxConcurrentCalls) {
+        this();
+        setMaxConcurrentCalls(maxConcurrentCalls);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Permit tryAcquire(Key key) {
+        if (!enabled) {
+            return PermitInstance.UNLIMITED;
+        }
+
+        for (;;) {
+            Semaphore semaphore = semaphoreFor(key);
+            int result = semaphore.tryAcquire();
+
+            if (result > 0) {
+                return new HeldPermit(semaphore);
+            }
+
+            if (result == 0) {
+                return PermitInstance.REJECTED;
+            }
+
+            /* The counter was evicted after we looked it up, so look again. */
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Permit tryAcquire(Key key, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!enabled) {
+            return PermitInstance.UNLIMITED;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Thread current = Thread.currentThread();
+
+        for (;;) {
+            Semaphore semaphore = semaphoreFor(key);
+            int result = semaphore.tryAcquire();
+
+            if (result > 0) {
+                return new HeldPermit(semaphore);
+            }
+
+            if (result < 0) {
+                continue;
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                return PermitInstance.REJECTED;
+            }
+
+            semaphore.waiters.add(current);
+
+            try {
+
+                /* Check again now that a release will see us, so that a wake-up is not lost. */
+                result = semaphore.tryAcquire();
+
+                if (result > 0) {
+                    return new HeldPermit(semaphore);
+                }
+
+                if (result == 0) {
+                    LockSupport.parkNanos(this, remaining);
+
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                semaphore.waiters.remove(current);
+                semaphore.wakeWaiter();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getConcurrentCalls(Key key) {
+        Semaphore semaphore = semaphores.get(key);
+        return semaphore == null ? 0 : Math.max(semaphore.get(), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConcurrentCalls() {
+        return concurrentCalls.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxConcurrentCalls() {
+        return this.maxConcurrentCalls;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        if (maxConcurrentCalls > 0) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Discards the counters of {@link Key}s which have no calls in flight and no waiting threads.
+     * 
+     * @return the number of counters discarded
+     */
+    public int evictIdle() {
+        int evicted = 0;
+
+        for (Iterator<Map.Entry<Key, Semaphore>> it = semaphores.entrySet().iterator(); it.hasNext();) {
+            Semaphore semaphore = it.next().getValue();
+
+            if (semaphore.waiters.isEmpty() && semaphore.compareAndSet(0, RETIRED)) {
+                it.remove();
+                ++evicted;
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Returns the counter for the specified {@link Key}, creating it if needed.
+     * 
+     * @param key
+     *            the {@link Key}
+     * @return a non-null {@link Semaphore}
+     */
+    private Semaphore semaphoreFor(Key key) {
+        Semaphore semaphore = semaphores.get(key);
+
+        if (semaphore == null) {
+            Semaphore created = new Semaphore();
+            semaphore = semaphores.putIfAbsent(key, created);
+
+            if (semaphore == null) {
+                semaphore = created;
+            }
+        }
+
+        return semaphore;
+    }
+
+    /**
+     * Counter of the calls in flight for one {@link Key}.
+     */
+    private final class Semaphore extends AtomicInteger {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The threads waiting for a permit.
+         */
+        final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+        /**
+         * Takes a permit if one is available.
+         * 
+         * @return 1 if a permit was taken, 0 if none are available, or -1 if this counter has been evicted
+         */
+        int tryAcquire() {
+            int limit = maxConcurrentCalls;
+
+            for (;;) {
+                int current = get();
+
+                if (current == RETIRED) {
+                    return -1;
+                }
+
+                if (current >= limit) {
+                    return 0;
+                }
+
+                if (compareAndSet(current, current + 1)) {
+                    concurrentCalls.increment();
+                    return 1;
+                }
+            }
+        }
+
+        /**
+         * Wakes the first waiting thread, if there is one and a permit is available.
+         */
+        void wakeWaiter() {
+            Thread waiter = waiters.peek();
+
+            if (waiter != null && get() < maxConcurrentCalls) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        /**
+         * Gives back a permit taken by {@link #tryAcquire()}.
+         */
+        void release() {
+            for (;;) {
+                int current = get();
+
+                /* Never drop below zero, which would free a call nobody holds or look like an evicted counter. */
+                if (current <= 0) {
+                    return;
+                }
+
+                if (compareAndSet(current, current - 1)) {
+                    break;
+                }
+            }
+
+            concurrentCalls.decrement();
+            wakeWaiter();
+        }
+    }
+
+    /**
+     * The usable {@link Permit} holding one call on a {@link Semaphore}, which it gives back on the first release only.
+     */
+    private static final class HeldPermit extends AtomicBoolean implements Permit {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The non-null {@link Semaphore} the call is held on.
+         */
+        private final Semaphore semaphore;
+
+        /**
+         * Creates a new {@link HeldPermit}.
+         * 
+         * @param semaphore
+         *            the non-null {@link Semaphore} the call is held on
+         */
+        HeldPermit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isUsable() {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void release() {
+            if (compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+
+    /**
+     * The {@link Permit}s which do not hold a concurrent call.
+     */
+    private static enum PermitInstance implements Permit {
+
+        /**
+         * The usable {@link Permit} returned while this {@link Bulkhead} is disabled.
+         */
+        UNLIMITED() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public boolean isUsable() {
+                return true;
+            }
+        },
+
+        /**
+         * The unusable {@link Permit} returned when no concurrent calls are available.
+         */
+        REJECTED() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public boolean isUsable() {
+                return false;
+            }
+        };
+
+        /**
+         * {@inheritDoc}
+         */
+        public void release() {
+            // no-op
+        }
+    }
+
+}
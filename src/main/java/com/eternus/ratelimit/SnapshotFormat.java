@@ -0,0 +1,225 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The binary format of a {@link SnapshotTokenStore} snapshot, shared by the in-memory stores.
+ * </p>
+ * 
+ * <p>
+ * A snapshot is a header of a magic number, a version byte and the time it was started, followed by one record per
+ * entry and an end marker. Each record is a marker byte, the key length as an unsigned short, the key bytes, the count
+ * and the remaining time to live in milliseconds as ints, then the age in milliseconds from which credit windows are
+ * counted and the packed credit budget as longs. All values are big-endian.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+final class SnapshotFormat {
+
+    /**
+     * The first four bytes of a snapshot.
+     */
+    private static final int MAGIC = 0x524C534E;
+
+    /**
+     * The version of the format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The marker which precedes each record.
+     */
+    private static final int ENTRY = 1;
+
+    /**
+     * The marker which follows the last record.
+     */
+    private static final int END = 0;
+
+    /**
+     * The largest number of bytes in an encoded {@link Key}.
+     */
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+
+    /**
+     * Not instantiable.
+     */
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Reads a whole snapshot, leaving out the entries which have expired since it was written.
+     * 
+     * @param in
+     *            the non-null {@link InputStream}, which is not closed
+     * @param codec
+     *            the non-null {@link KeyCodec}
+     * @param clock
+     *            the non-null {@link Clock} of the store the entries are loaded into
+     * @return a non-null Map of the live entries, in the order they were written
+     * @throws IOException
+     *             if the snapshot cannot be read or is not in the expected format
+     */
+    static Map<Key, StoreEntry> read(InputStream in, KeyCodec codec, Clock clock) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a rate limiter snapshot");
+        }
+
+        int version = data.readUnsignedByte();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        long started = data.readLong();
+        long now = clock.currentTimeMillis();
+        Map<Key, StoreEntry> result = new LinkedHashMap<Key, StoreEntry>();
+
+        for (int marker = data.readUnsignedByte(); marker != END; marker = data.readUnsignedByte()) {
+            if (marker != ENTRY) {
+                throw new IOException("Corrupt snapshot record marker " + marker);
+            }
+
+            byte[] bytes = new byte[data.readUnsignedShort()];
+            data.readFully(bytes);
+            int count = data.readInt();
+            long expiry = started + data.readInt();
+            long origin = started - data.readLong();
+            long budget = data.readLong();
+            Key key = codec.decode(bytes);
+
+            if (key != null && expiry > now) {
+                result.put(key, new StoreEntryImpl(count, expiry, origin, budget, clock));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the records of a snapshot to a stream.
+     */
+    static final class Writer {
+
+        /**
+         * The non-null buffered stream.
+         */
+        private final DataOutputStream out;
+
+        /**
+         * The non-null {@link KeyCodec}.
+         */
+        private final KeyCodec codec;
+
+        /**
+         * The time from the epoch in milliseconds when the snapshot was started.
+         */
+        private final long started;
+
+        /**
+         * The number of records written.
+         */
+        private int written;
+
+        /**
+         * Creates a new {@link Writer} and writes the header.
+         * 
+         * @param out
+         *            the non-null {@link OutputStream}, which is not closed
+         * @param codec
+         *            the non-null {@link KeyCodec}
+         * @param clock
+         *            the non-null {@link Clock} of the store the entries are written from
+         * @throws IOException
+         *             if the header cannot be written
+         */
+        Writer(OutputStream out, KeyCodec codec, Clock clock) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.codec = codec;
+            this.started = clock.currentTimeMillis();
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeLong(started);
+        }
+
+        /**
+         * Writes a record for the entry, unless it has expired, its {@link Key} cannot be encoded or it is not one of the
+         * {@link StoreEntry}s created by the stores in this package.
+         * 
+         * @param key
+         *            the non-null {@link Key}
+         * @param entry
+         *            the non-null {@link StoreEntry}
+         * @throws IOException
+         *             if the record cannot be written
+         */
+        void write(Key key, StoreEntry entry) throws IOException {
+            if (!(entry instanceof StoreEntryImpl)) {
+                return;
+            }
+
+            StoreEntryImpl impl = (StoreEntryImpl) entry;
+            long remaining = impl.getExpiry() - started;
+
+            if (remaining <= 0) {
+                return;
+            }
+
+            byte[] bytes = codec.encode(key);
+
+            if (bytes == null || bytes.length > MAX_KEY_LENGTH) {
+                return;
+            }
+
+            out.writeByte(ENTRY);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+            out.writeInt(impl.getCount());
+            out.writeInt((int) Math.min(remaining, Integer.MAX_VALUE));
+            out.writeLong(started - impl.getOrigin());
+            out.writeLong(impl.getBudget());
+            ++written;
+        }
+
+        /**
+         * Writes the end marker and flushes the stream.
+         * 
+         * @return the number of records written
+         * @throws IOException
+         *             if the end marker cannot be written
+         */
+        int finish() throws IOException {
+            out.writeByte(END);
+            out.flush();
+            return written;
+        }
+    }
+
+}
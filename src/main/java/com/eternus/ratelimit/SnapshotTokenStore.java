@@ -0,0 +1,69 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * {@link TokenStore} which can write a point-in-time snapshot of its live entries and load one back, so that a new
+ * process can take over from an old one, for example in a blue/green deployment, without every client starting a new
+ * service slot.
+ * </p>
+ * 
+ * <p>
+ * Each entry is written as its encoded {@link Key}, its count, its remaining time to live and any burst credit budget,
+ * so that clients keep the credit they had built up. Writing a snapshot does
+ * not stop requests from being served: entries are copied a few at a time and written outside any lock, so the
+ * snapshot is consistent per entry rather than across the whole store. Entries which expire before they are loaded are
+ * skipped.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public interface SnapshotTokenStore extends TokenStore {
+
+    /**
+     * Writes a snapshot of the live entries to the stream, which is flushed but not closed.
+     * 
+     * @param out
+     *            the non-null {@link OutputStream}
+     * @param codec
+     *            the non-null {@link KeyCodec} used to encode the {@link Key}s
+     * @return the number of entries written
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    int writeSnapshot(OutputStream out, KeyCodec codec) throws IOException;
+
+    /**
+     * Loads the entries from a snapshot, replacing any entries this store already has for the same {@link Key}s. The
+     * stream is not closed.
+     * 
+     * @param in
+     *            the non-null {@link InputStream}
+     * @param codec
+     *            the non-null {@link KeyCodec} used to decode the {@link Key}s
+     * @return the number of entries loaded
+     * @throws IOException
+     *             if the snapshot cannot be read or is not in the expected format
+     */
+    int readSnapshot(InputStream in, KeyCodec codec) throws IOException;
+
+}
@@ -16,6 +16,7 @@
 package com.eternus.ratelimit;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@link StoreEntry} implementation.
@@ -25,6 +26,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 class StoreEntryImpl implements StoreEntry {
 
+    /**
+     * Value of {@link #budget} before it is first touched.
+     */
+    private static final long UNUSED = -1L;
+
+    /**
+     * The non-null {@link Clock} used to tell whether this entry has expired.
+     */
+    private final Clock clock;
+
     /**
      * The expiry time from the epoch.
      */
@@ -35,6 +46,17 @@ class StoreEntryImpl implements StoreEntry {
      */
     private final AtomicInteger counter;
 
+    /**
+     * The time from the epoch in milliseconds when this entry was created, from which credit windows are counted.
+     */
+    private final long origin;
+
+    /**
+     * The credit budget, with the index of the window it was last touched in as the high 32 bits and the budget as the
+     * low 32 bits, or {@link #UNUSED} before it is first touched.
+     */
+    private final AtomicLong budget;
+
     /**
      * Creates a new {@link StoreEntryImpl} which will expire in {@code timeToLive} seconds.
      * 
@@ -42,15 +64,53 @@ class StoreEntryImpl implements StoreEntry {
      *            the time to live in seconds
      */
     StoreEntryImpl(int timeToLive) {
-        this.expiry = System.currentTimeMillis() + timeToLive * 1000;
+        this(timeToLive, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new {@link StoreEntryImpl} which will expire in {@code timeToLive} seconds by the specified
+     * {@link Clock}.
+     * 
+     * @param timeToLive
+     *            the time to live in seconds
+     * @param clock
+     *            the non-null {@link Clock}
+     */
+    StoreEntryImpl(int timeToLive, Clock clock) {
+        this.clock = clock;
+        this.origin = clock.currentTimeMillis();
+        this.expiry = this.origin + timeToLive * 1000L;
         this.counter = new AtomicInteger(0);
+        this.budget = new AtomicLong(UNUSED);
+    }
+
+    /**
+     * Creates a new {@link StoreEntryImpl} restored from a snapshot.
+     * 
+     * @param count
+     *            the number of requests counted so far in the current period
+     * @param expiry
+     *            the expiry time from the epoch in milliseconds
+     * @param origin
+     *            the time from the epoch in milliseconds from which credit windows are counted
+     * @param budget
+     *            the credit budget, as returned by {@link #getBudget()}
+     * @param clock
+     *            the non-null {@link Clock}
+     */
+    StoreEntryImpl(int count, long expiry, long origin, long budget, Clock clock) {
+        this.clock = clock;
+        this.origin = origin;
+        this.expiry = expiry;
+        this.counter = new AtomicInteger(count);
+        this.budget = new AtomicLong(budget);
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean isExpired() {
-        return System.currentTimeMillis() > expiry;
+        return clock.currentTimeMillis() > expiry;
     }
 
     /**
@@ -60,4 +120,115 @@ class StoreEntryImpl implements StoreEntry {
         return this.counter.incrementAndGet();
     }
 
+    /**
+     * Atomically increments the count if it is below the specified ceiling, so that a denied request does not use up
+     * capacity which a request with a higher ceiling could still have.
+     * 
+     * @param ceiling
+     *            the count below which the increment happens
+     * @return true if the count was incremented, otherwise false
+     */
+    boolean incrementIfBelow(int ceiling) {
+        for (;;) {
+            int current = this.counter.get();
+
+            if (current >= ceiling) {
+                return false;
+            }
+
+            if (this.counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes one request from a budget which is refilled with {@code allowance} requests at the start of each window,
+     * carrying up to {@code maxCredit} unused requests over from the windows before. The refill is computed lazily from
+     * the windows which have passed since the budget was last touched. A new entry starts with the allowance and no
+     * credit, so that recreating an entry never hands out an extra burst.
+     * 
+     * @param allowance
+     *            the positive number of requests allowed per window
+     * @param maxCredit
+     *            the positive maximum number of unused requests carried over
+     * @param reserved
+     *            the non-negative number of requests which must be left in the budget after taking this one
+     * @param windowInMillis
+     *            the positive window length in milliseconds
+     * @param now
+     *            the current time from the epoch in milliseconds
+     * @return the budget left after taking the request if it was taken, otherwise the bitwise complement of the budget
+     */
+    int takeWithCredit(int allowance, int maxCredit, int reserved, long windowInMillis, long now) {
+        int current = (int) (Math.max(now - this.origin, 0) / windowInMillis);
+
+        for (;;) {
+            long state = this.budget.get();
+            int window;
+            int available;
+
+            if (state == UNUSED) {
+                window = current;
+                available = allowance;
+            } else {
+                window = (int) (state >>> 32);
+                available = (int) state;
+
+                if (current > window) {
+
+                    /* What was left is carried over, plus the whole allowance of any windows with no requests. */
+                    long carried = Math.max(available, 0) + (long) allowance * (current - window - 1);
+                    available = allowance + (int) Math.min(carried, maxCredit);
+                    window = current;
+                }
+            }
+
+            if (available <= reserved) {
+                return ~available;
+            }
+
+            if (this.budget.compareAndSet(state, ((long) window << 32) | ((available - 1) & 0xFFFFFFFFL))) {
+                return available - 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests counted so far in the current period.
+     * 
+     * @return a non-negative count
+     */
+    int getCount() {
+        return this.counter.get();
+    }
+
+    /**
+     * Returns the time from the epoch in milliseconds at which this entry expires.
+     * 
+     * @return the expiry time
+     */
+    long getExpiry() {
+        return this.expiry;
+    }
+
+    /**
+     * Returns the time from the epoch in milliseconds from which credit windows are counted.
+     * 
+     * @return the origin
+     */
+    long getOrigin() {
+        return this.origin;
+    }
+
+    /**
+     * Returns the credit budget, with the index of the window it was last touched in as the high 32 bits and the budget
+     * as the low 32 bits, or {@link #UNUSED} before it is first touched.
+     * 
+     * @return the packed budget
+     */
+    long getBudget() {
+        return this.budget.get();
+    }
+
 }
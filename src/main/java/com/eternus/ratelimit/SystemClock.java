@@ -0,0 +1,38 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * {@link Clock} which tells the time of the system.
+ * 
+ * @author jabley
+ * 
+ */
+public enum SystemClock implements Clock {
+
+    /**
+     * The only instance.
+     */
+    INSTANCE;
+
+    /**
+     * {@inheritDoc}
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * Decides which tenant a {@link Key} belongs to, so that a {@link TenantTokenStore} can keep each tenant's entries
+ * apart.
+ * 
+ * @author jabley
+ * 
+ */
+public interface TenantResolver {
+
+    /**
+     * Returns the tenant of the specified {@link Key}.
+     * 
+     * @param key
+     *            the non-null {@link Key}
+     * @return the non-null tenant, which should have a good implementation of {@link #equals(Object)} and
+     *         {@link #hashCode()}
+     */
+    Object getTenant(Key key);
+
+    /**
+     * Returns the tenant of the specified primitive key.
+     * 
+     * @param key
+     *            the key
+     * @return the non-null tenant
+     */
+    Object getTenant(long key);
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * {@link TokenStore} which gives each tenant its own shard, so that one tenant with a great many keys cannot fill the
+ * store or slow down lookups for the others. The tenant of each {@link Key} comes from a {@link TenantResolver}, and
+ * the shard for a tenant is found in a concurrent map without locking.
+ * </p>
+ * 
+ * <p>
+ * Each shard holds at most a fixed number of entries and has its own lock, which is only taken when a key has no live
+ * entry, as with {@link LongMemoryTokenStore}. Once a shard is full, expired entries are dropped at most once a second
+ * and any further new keys of that tenant share a single overflow entry. They are then rate-limited together rather
+ * than given fresh service slots, and the other tenants are unaffected.
+ * </p>
+ * 
+ * <p>
+ * The shard remembers which keys share the overflow entry, up to its maximum number of entries again, so that their
+ * later requests are found without locking until the overflow entry expires. Requests for keys beyond that take the
+ * shard's lock every time, which bounds the memory a tenant can use at the cost of serializing its excess keys.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class TenantTokenStore implements TokenStore {
+
+    /**
+     * The time in milliseconds between attempts to drop expired entries from a full shard.
+     */
+    private static final long PURGE_INTERVAL = 1000;
+
+    /**
+     * The non-null {@link TenantResolver}.
+     */
+    private final TenantResolver resolver;
+
+    /**
+     * The non-null {@link Clock} which the entries expire by.
+     */
+    private final Clock clock;
+
+    /**
+     * The shards, by tenant.
+     */
+    private final ConcurrentMap<Object, Shard> shards;
+
+    /**
+     * The maximum number of entries for tenants without a budget of their own.
+     */
+    private volatile int defaultMaxEntries;
+
+    /**
+     * The maximum number of entries for tenants with a budget of their own.
+     */
+    private final ConcurrentMap<Object, Integer> maxEntries;
+
+    /**
+     * Creates a new {@link TenantTokenStore}.
+     * 
+     * @param resolver
+     *            the non-null {@link TenantResolver}
+     * @param defaultMaxEntries
+     *            the positive maximum number of entries for each tenant without a budget of its own
+     */
+    public TenantTokenStore(TenantResolver resolver, int defaultMaxEntries) {
+        this(resolver, defaultMaxEntries, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates a new {@link TenantTokenStore} whose entries expire by the specified {@link Clock}.
+     * 
+     * @param resolver
+     *            the non-null {@link TenantResolver}
+     * @param defaultMaxEntries
+     *            the positive maximum number of entries for each tenant without a budget of its own
+     * @param clock
+     *            the non-null {@link Clock}
+     */
+    public TenantTokenStore(TenantResolver resolver, int defaultMaxEntries, Clock clock) {
+        if (resolver == null || clock == null) {
+            throw new IllegalArgumentException("resolver and clock cannot be null");
+        }
+
+        if (defaultMaxEntries <= 0) {
+            throw new IllegalArgumentException("defaultMaxEntries must be positive");
+        }
+
+        this.resolver = resolver;
+        this.clock = clock;
+        this.defaultMaxEntries = defaultMaxEntries;
+        this.shards = new ConcurrentHashMap<Object, Shard>();
+        this.maxEntries = new ConcurrentHashMap<Object, Integer>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry get(Key key) {
+        return shardFor(resolver.getTenant(key)).get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry create(Key key, int timeToLiveInSecs) {
+        return shardFor(resolver.getTenant(key)).create(key, timeToLiveInSecs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry get(long key) {
+        return shardFor(resolver.getTenant(key)).get(LongKey.valueOf(key));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StoreEntry create(long key, int timeToLiveInSecs) {
+        return shardFor(resolver.getTenant(key)).create(LongKey.valueOf(key), timeToLiveInSecs);
+    }
+
+    /**
+     * Returns the maximum number of entries for tenants without a budget of their own.
+     * 
+     * @return the positive default maximum
+     */
+    public int getDefaultMaxEntries() {
+        return defaultMaxEntries;
+    }
+
+    /**
+     * Sets the maximum number of entries for tenants without a budget of their own. Shards which are already over the
+     * new maximum shrink as their entries expire.
+     * 
+     * @param defaultMaxEntries
+     *            the default maximum to set - positive integer
+     */
+    public void setDefaultMaxEntries(int defaultMaxEntries) {
+        if (defaultMaxEntries > 0) {
+            this.defaultMaxEntries = defaultMaxEntries;
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries for the specified tenant.
+     * 
+     * @param tenant
+     *            the non-null tenant
+     * @param max
+     *            the maximum to set - positive integer
+     */
+    public void setMaxEntries(Object tenant, int max) {
+        if (max > 0) {
+            maxEntries.put(tenant, max);
+        }
+    }
+
+    /**
+     * Returns the maximum number of entries for the specified tenant.
+     * 
+     * @param tenant
+     *            the non-null tenant
+     * @return the positive maximum
+     */
+    public int getMaxEntries(Object tenant) {
+        Integer max = maxEntries.get(tenant);
+        return max == null ? defaultMaxEntries : max;
+    }
+
+    /**
+     * Returns the tenants which have a shard.
+     * 
+     * @return a non-null unmodifiable Set of tenants
+     */
+    public Set<Object> getTenants() {
+        return Collections.unmodifiableSet(shards.keySet());
+    }
+
+    /**
+     * Returns the number of entries in the shard of the specified tenant, including any which have expired but not yet
+     * been dropped.
+     * 
+     * @param tenant
+     *            the non-null tenant
+     * @return a non-negative count
+     */
+    public int getEntryCount(Object tenant) {
+        Shard shard = shards.get(tenant);
+        return shard == null ? 0 : shard.entries.size();
+    }
+
+    /**
+     * Returns the number of times a key of the specified tenant was given the overflow entry because the shard was
+     * full. A key which the shard remembers is counted once for each overflow entry it shares; the requests of any
+     * keys beyond those are each counted.
+     * 
+     * @param tenant
+     *            the non-null tenant
+     * @return a non-negative count
+     */
+    public long getOverflowCount(Object tenant) {
+        Shard shard = shards.get(tenant);
+        return shard == null ? 0 : shard.overflows.get();
+    }
+
+    /**
+     * Returns the shard for the specified tenant, creating it if needed.
+     * 
+     * @param tenant
+     *            the non-null tenant
+     * @return a non-null {@link Shard}
+     */
+    private Shard shardFor(Object tenant) {
+        Shard shard = shards.get(tenant);
+
+        if (shard == null) {
+            Shard created = new Shard(tenant);
+            shard = shards.putIfAbsent(tenant, created);
+
+            if (shard == null) {
+                shard = created;
+            }
+        }
+
+        return shard;
+    }
+
+    /**
+     * The entries of one tenant, which is also the lock taken when a key has no live entry.
+     */
+    private final class Shard extends ReentrantLock {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The non-null tenant.
+         */
+        private final Object tenant;
+
+        /**
+         * The entries, by {@link Key}.
+         */
+        final ConcurrentMap<Key, StoreEntry> entries;
+
+        /**
+         * The keys which share the overflow entry, by {@link Key}, at most as many as the entries.
+         */
+        private final ConcurrentMap<Key, StoreEntry> overflowed;
+
+        /**
+         * The number of times a key was given the overflow entry.
+         */
+        final AtomicLong overflows;
+
+        /**
+         * The entry shared by new keys while the shard is full, guarded by this - may be null.
+         */
+        private StoreEntry overflow;
+
+        /**
+         * The time from the epoch in milliseconds after which expired entries may next be dropped, guarded by this.
+         */
+        private long nextPurge;
+
+        /**
+         * Creates a new {@link Shard}.
+         * 
+         * @param tenant
+         *            the non-null tenant
+         */
+        Shard(Object tenant) {
+            this.tenant = tenant;
+            this.entries = new ConcurrentHashMap<Key, StoreEntry>();
+            this.overflowed = new ConcurrentHashMap<Key, StoreEntry>();
+            this.overflows = new AtomicLong();
+        }
+
+        /**
+         * Returns the live entry for the {@link Key}, or null with the lock held.
+         * 
+         * @param key
+         *            the non-null {@link Key}
+         * @return a {@link StoreEntry} - may be null
+         */
+        StoreEntry get(Key key) {
+            StoreEntry result = lookup(key);
+
+            if (!(result == null || result.isExpired())) {
+
+                /* Cache hit with a good entry - use it, without locking. */
+                return result;
+            }
+
+            lock();
+
+            /* Check again in case it was created by a different thread. */
+            result = lookup(key);
+
+            if (!(result == null || result.isExpired())) {
+                unlock();
+                return result;
+            }
+
+            if (result != null) {
+                entries.remove(key);
+                overflowed.remove(key);
+            }
+
+            /* Keep the lock and the client will call create(Key, int). */
+            return null;
+        }
+
+        /**
+         * Creates the entry for the {@link Key}, or hands out the overflow entry if the shard is full, and releases the
+         * lock.
+         * 
+         * @param key
+         *            the non-null {@link Key}
+         * @param timeToLive
+         *            the positive time to live in seconds
+         * @return a non-null {@link StoreEntry}
+         */
+        StoreEntry create(Key key, int timeToLive) {
+            try {
+                int max = getMaxEntries(tenant);
+
+                if (entries.size() >= max && !purge()) {
+                    overflows.incrementAndGet();
+
+                    if (overflow == null || overflow.isExpired()) {
+                        overflowed.clear();
+                        overflow = new StoreEntryImpl(timeToLive, clock);
+                    }
+
+                    if (overflowed.size() < max) {
+                        overflowed.put(key, overflow);
+                    }
+
+                    return overflow;
+                }
+
+                StoreEntryImpl result = new StoreEntryImpl(timeToLive, clock);
+                entries.put(key, result);
+                return result;
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Returns the entry for the {@link Key}, or the overflow entry if the key is known to share it.
+         * 
+         * @param key
+         *            the non-null {@link Key}
+         * @return a {@link StoreEntry} - may be null
+         */
+        private StoreEntry lookup(Key key) {
+            StoreEntry result = entries.get(key);
+            return result != null ? result : overflowed.get(key);
+        }
+
+        /**
+         * Drops the expired entries, and forgets the keys sharing the overflow entry once it has expired, if it is
+         * time to try again.
+         * 
+         * @return true if there is now room for another entry, otherwise false
+         */
+        private boolean purge() {
+            long now = clock.currentTimeMillis();
+
+            if (now < nextPurge) {
+                return false;
+            }
+
+            nextPurge = now + PURGE_INTERVAL;
+
+            if (overflow != null && overflow.isExpired()) {
+                overflowed.clear();
+                overflow = null;
+            }
+
+            for (Iterator<Map.Entry<Key, StoreEntry>> i = entries.entrySet().iterator(); i.hasNext();) {
+                if (i.next().getValue().isExpired()) {
+                    i.remove();
+                }
+            }
+
+            return entries.size() < getMaxEntries(tenant);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * <p>
+ * Encodes the outcome of a rate-limiting decision in a single {@code long}, so that callers which need to report it,
+ * for example in {@code X-RateLimit-Remaining} and {@code Retry-After} response headers, can do so without a second
+ * lookup and without allocating.
+ * </p>
+ * 
+ * <p>
+ * The top bit is set if the request may proceed, the next 31 bits hold the number of requests remaining in the current
+ * service slot, and the low 32 bits hold the number of milliseconds until the slot resets. A {@link RateLimiter} which
+ * only knows whether the request may proceed returns an {@link #unknown(boolean) unknown} status, with all of the
+ * other bits set.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public final class TokenStatus {
+
+    /**
+     * The bit which is set if the request may proceed.
+     */
+    private static final long USABLE_BIT = 1L << 63;
+
+    /**
+     * The mask for the low 32 bits which hold the time until reset.
+     */
+    private static final long RESET_MASK = 0xFFFFFFFFL;
+
+    /**
+     * The bits which are all set in a status whose remaining requests and time until reset are not known.
+     */
+    private static final long UNKNOWN_BITS = ~USABLE_BIT;
+
+    /**
+     * The status of a request which is not limited, for example because the {@link RateLimiter} is disabled.
+     */
+    public static final long UNLIMITED = pack(true, Integer.MAX_VALUE, 0);
+
+    /**
+     * Not instantiable.
+     */
+    private TokenStatus() {
+    }
+
+    /**
+     * Returns the packed status.
+     * 
+     * @param usable
+     *            true if the request may proceed
+     * @param remaining
+     *            the number of requests remaining in the current service slot - negative values are treated as 0
+     * @param millisUntilReset
+     *            the time in milliseconds until the service slot resets - clamped to between 0 and 2^32 - 1
+     * @return the packed status
+     */
+    public static long pack(boolean usable, int remaining, long millisUntilReset) {
+        long reset = Math.min(Math.max(millisUntilReset, 0), RESET_MASK);
+        return (usable ? USABLE_BIT : 0) | ((long) Math.max(remaining, 0) << 32) | reset;
+    }
+
+    /**
+     * Returns the status of a decision whose remaining requests and time until reset are not known.
+     * 
+     * @param usable
+     *            true if the request may proceed
+     * @return the packed status
+     */
+    public static long unknown(boolean usable) {
+        return (usable ? USABLE_BIT : 0) | UNKNOWN_BITS;
+    }
+
+    /**
+     * Returns true if the status reports the remaining requests and the time until reset, rather than just whether
+     * the request may proceed.
+     * 
+     * @param status
+     *            the packed status
+     * @return true if the remaining requests and time until reset are known, otherwise false
+     */
+    public static boolean isKnown(long status) {
+        return (status & UNKNOWN_BITS) != UNKNOWN_BITS;
+    }
+
+    /**
+     * Returns true if the request may proceed.
+     * 
+     * @param status
+     *            the packed status
+     * @return true if the request may proceed, otherwise false
+     */
+    public static boolean isUsable(long status) {
+        return (status & USABLE_BIT) != 0;
+    }
+
+    /**
+     * Returns the number of requests remaining in the current service slot.
+     * 
+     * @param status
+     *            the packed status
+     * @return a non-negative count
+     */
+    public static int getRemaining(long status) {
+        return (int) ((status & ~USABLE_BIT) >>> 32);
+    }
+
+    /**
+     * Returns the time in milliseconds until the current service slot resets.
+     * 
+     * @param status
+     *            the packed status
+     * @return a non-negative time in milliseconds
+     */
+    public static long getMillisUntilReset(long status) {
+        return status & RESET_MASK;
+    }
+
+    /**
+     * Returns the time in milliseconds after which a denied request may be retried, or 0 if the request may proceed.
+     * 
+     * @param status
+     *            the packed status
+     * @return a non-negative time in milliseconds
+     */
+    public static long getRetryAfterInMillis(long status) {
+        return isUsable(status) ? 0 : getMillisUntilReset(status);
+    }
+
+    /**
+     * Returns the time in whole seconds, rounded up, after which a denied request may be retried, as used in a
+     * {@code Retry-After} header, or 0 if the request may proceed.
+     * 
+     * @param status
+     *            the packed status
+     * @return a non-negative time in seconds
+     */
+    public static long getRetryAfterInSeconds(long status) {
+        return (getRetryAfterInMillis(status) + 999) / 1000;
+    }
+
+    /**
+     * Returns the {@link Token} for the packed status.
+     * 
+     * @param status
+     *            the packed status
+     * @return a non-null {@link Token}
+     */
+    public static Token toToken(long status) {
+        return isUsable(status) ? TokenInstance.USABLE : TokenInstance.UNUSABLE;
+    }
+
+    /**
+     * Returns a readable form of the packed status, for logging.
+     * 
+     * @param status
+     *            the packed status
+     * @return a non-null String
+     */
+    public static String toString(long status) {
+        return (isUsable(status) ? "USABLE" : "UNUSABLE") + "[remaining=" + getRemaining(status) + ", reset="
+                + getMillisUntilReset(status) + "ms]";
+    }
+
+}
@@ -47,4 +47,31 @@ public interface TokenStore {
      */
     StoreEntry create(Key key, int timeToLiveInSecs);
 
+    /**
+     * Returns a usable {@link StoreEntry} for the given primitive key, with the same contract as {@link #get(Key)}: a
+     * value of {@code null} means that the calling client <strong>MUST</strong> call {@link #create(long, int)}. The
+     * entry is the same as the one for a {@link LongKey} of the same value, which the default implementation looks up.
+     * 
+     * @param key
+     *            the key
+     * @return a {@link StoreEntry} or null
+     */
+    default StoreEntry get(long key) {
+        return get(LongKey.valueOf(key));
+    }
+
+    /**
+     * Creates a new {@link StoreEntry} for the given primitive key. The default implementation creates the entry for a
+     * {@link LongKey} of the same value.
+     * 
+     * @param key
+     *            the key
+     * @param timeToLiveInSecs
+     *            the positive time-to-live in seconds
+     * @return a non-null usable {@link StoreEntry}
+     */
+    default StoreEntry create(long key, int timeToLiveInSecs) {
+        return create(LongKey.valueOf(key), timeToLiveInSecs);
+    }
+
 }
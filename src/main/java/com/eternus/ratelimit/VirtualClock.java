@@ -0,0 +1,79 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+/**
+ * {@link Clock} whose time only changes when it is set, for replaying recorded traffic as fast as possible.
+ * 
+ * @author jabley
+ * 
+ */
+public class VirtualClock implements Clock {
+
+    /**
+     * The current time from the epoch in milliseconds.
+     */
+    private volatile long now;
+
+    /**
+     * Creates a new {@link VirtualClock} set to the epoch.
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Creates a new {@link VirtualClock}.
+     * 
+     * @param now
+     *            the initial time from the epoch in milliseconds
+     */
+    public VirtualClock(long now) {
+        this.now = now;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Sets the current time. Setting it earlier than it is does not move it back.
+     * 
+     * @param now
+     *            the time from the epoch in milliseconds
+     */
+    public void advanceTo(long now) {
+        if (now > this.now) {
+            this.now = now;
+        }
+    }
+
+    /**
+     * Moves the current time on.
+     * 
+     * @param millis
+     *            the non-negative number of milliseconds to move on by
+     */
+    public void advance(long millis) {
+        if (millis > 0) {
+            this.now += millis;
+        }
+    }
+
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eternus.ratelimit.circuitbreaker.CircuitBreakerListeners.Notifications;
+
+/**
+ * <p>
+ * {@link CircuitBreaker} implementation which keeps its state, consecutive failure count and reset time in a single
+ * packed {@code long}, and changes state only by compare-and-set.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@link CircuitBreakerImpl}, no state objects are allocated on transitions, and exactly one thread wins each
+ * transition, so concurrent failures cannot double count a trip or notify listeners twice. A closed breaker that sees
+ * only successes does not write to shared memory at all.
+ * </p>
+ * 
+ * <p>
+ * The word is laid out as:
+ * </p>
+ * 
+ * <pre>
+ * | state (2 bits) | failure count (20 bits) | reset time, millis since creation (42 bits) |
+ * </pre>
+ * 
+ * <p>
+ * While half-open, the failure count bits instead hold the number of successful trial calls (10 bits) and the number
+ * of trial calls admitted (10 bits).
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class AtomicCircuitBreaker implements CircuitBreaker {
+
+    /**
+     * State value for a closed {@link CircuitBreaker}.
+     */
+    private static final int CLOSED = 0;
+
+    /**
+     * State value for an open {@link CircuitBreaker}.
+     */
+    private static final int OPEN = 1;
+
+    /**
+     * State value for a half-open {@link CircuitBreaker}.
+     */
+    private static final int HALF_OPEN = 2;
+
+    /**
+     * The human-readable names of the states, indexed by state value.
+     */
+    private static final String[] STATE_NAMES = { "CLOSED", "OPEN", "HALF_OPEN" };
+
+    /**
+     * The position of the state bits.
+     */
+    private static final int STATE_SHIFT = 62;
+
+    /**
+     * The position of the failure count bits.
+     */
+    private static final int COUNT_SHIFT = 42;
+
+    /**
+     * The largest failure count that can be stored.
+     */
+    private static final int COUNT_MASK = (1 << 20) - 1;
+
+    /**
+     * The mask for the reset time bits.
+     */
+    private static final long TIME_MASK = (1L << COUNT_SHIFT) - 1;
+
+    /**
+     * The largest number of half-open trial calls, or successes, that can be stored.
+     */
+    private static final int TRIAL_MASK = (1 << 10) - 1;
+
+    /**
+     * The position of the half-open success count within the failure count bits.
+     */
+    private static final int SUCCESS_SHIFT = 10;
+
+    /**
+     * The number of consecutive failures allowed before this {@link CircuitBreaker} will trip.
+     */
+    private final int threshold;
+
+    /**
+     * The {@link BackoffPolicy} which decides how long this {@link CircuitBreaker} stays open.
+     */
+    private final BackoffPolicy backoff;
+
+    /**
+     * The number of trips since this {@link CircuitBreaker} last closed. Only written by the thread which wins a
+     * transition.
+     */
+    private final AtomicInteger consecutiveTrips;
+
+    /**
+     * The {@link TripPolicy} used while closed, or null to count consecutive failures in the state word.
+     */
+    private final TripPolicy policy;
+
+    /**
+     * The {@link CallTimer} which times calls between {@link #before()} and {@link #after()}, or null if slow calls are
+     * not detected.
+     */
+    private final CallTimer timer;
+
+    /**
+     * The number of trial calls permitted while half-open, or zero for no limit.
+     */
+    private final int permittedHalfOpenCalls;
+
+    /**
+     * The number of successful trial calls needed to close again.
+     */
+    private final int halfOpenSuccessQuorum;
+
+    /**
+     * The time from the epoch in milliseconds when this {@link CircuitBreaker} was created, from which reset times are
+     * measured.
+     */
+    private final long epoch;
+
+    /**
+     * The packed state word.
+     */
+    private final AtomicLong state;
+
+    /**
+     * Count of the number of times this {@link CircuitBreaker} has been tripped.
+     */
+    private final AtomicLong tripCount;
+
+    /**
+     * The non-null {@link CircuitBreakerListeners} that wish to be notified of state changes.
+     */
+    private final CircuitBreakerListeners listeners;
+
+    /**
+     * Creates a new {@link AtomicCircuitBreaker} with the specified threshold and timeout.
+     * 
+     * @param threshold
+     *            a non-negative number of consecutive failures allowed before this {@link CircuitBreaker} will trip
+     * @param timeout
+     *            the time in milliseconds needed for this tripped {@link CircuitBreaker} to attempt a reset
+     */
+    public AtomicCircuitBreaker(int threshold, int timeout) {
+        this(CircuitBreakerConfiguration.defaults(threshold, timeout));
+    }
+
+    /**
+     * Creates a new {@link AtomicCircuitBreaker} with the settings of the specified
+     * {@link CircuitBreakerConfiguration}. Consecutive failures are counted in the state word unless a failure rate or
+     * slow call threshold is configured.
+     * 
+     * @param config
+     *            the non-null {@link CircuitBreakerConfiguration}
+     */
+    AtomicCircuitBreaker(CircuitBreakerConfiguration config) {
+        this.threshold = Math.min(Math.max(config.getThreshold(), 0), COUNT_MASK - 1);
+        this.backoff = config.createBackoffPolicy();
+        this.consecutiveTrips = new AtomicInteger();
+        this.policy = config.getFailureRateThreshold() > 0 || config.isSlowCallDetectionEnabled() ? config
+                .createTripPolicy() : null;
+        this.timer = config.isSlowCallDetectionEnabled() ? new CallTimer() : null;
+        this.permittedHalfOpenCalls = Math.min(config.getPermittedHalfOpenCalls(), TRIAL_MASK);
+        this.halfOpenSuccessQuorum = Math.min(config.getHalfOpenSuccessQuorum(),
+                permittedHalfOpenCalls > 0 ? permittedHalfOpenCalls : TRIAL_MASK);
+        this.epoch = System.currentTimeMillis();
+        this.state = new AtomicLong(pack(CLOSED, 0, 0));
+        this.tripCount = new AtomicLong();
+        this.listeners = new CircuitBreakerListeners();
+        this.listeners.setExecutor(config.getListenerExecutor());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addListener(CircuitBreakerListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Sets the {@link Executor} used to notify {@link CircuitBreakerListener}s of state changes, in order and off the
+     * thread that caused the change. A value of {@code null}, the default, means that listeners are notified
+     * synchronously.
+     * 
+     * @param executor
+     *            an {@link Executor} - may be null
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listeners.setExecutor(executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before() throws CircuitBreakerException {
+        CircuitBreakerOpenException rejection = admit();
+
+        if (rejection != null) {
+            throw rejection;
+        }
+
+        if (timer != null) {
+            timer.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean tryBefore() {
+        if (admit() != null) {
+            return false;
+        }
+
+        if (timer != null) {
+            timer.start();
+        }
+
+        return true;
+    }
+
+    /**
+     * Decides whether a call may go ahead, taking a trial call if half-open.
+     * 
+     * @return null if the call may go ahead, otherwise the preallocated {@link CircuitBreakerOpenException} saying why
+     *         not
+     */
+    private CircuitBreakerOpenException admit() {
+        for (;;) {
+            long current = state.get();
+            int stateValue = stateOf(current);
+
+            if (stateValue == CLOSED) {
+                return null;
+            }
+
+            if (stateValue == HALF_OPEN) {
+                if (permittedHalfOpenCalls == 0) {
+                    return null;
+                }
+
+                int trials = countOf(current);
+
+                if ((trials & TRIAL_MASK) >= permittedHalfOpenCalls) {
+                    return CircuitBreakerOpenException.NO_TRIAL_CALLS;
+                }
+
+                if (state.compareAndSet(current, pack(HALF_OPEN, trials + 1, 0))) {
+                    return null;
+                }
+            } else if (now() < resetTimeOf(current)) {
+                return CircuitBreakerOpenException.OPEN;
+            } else if (state.compareAndSet(current, pack(HALF_OPEN, 1, 0))) {
+
+                /* This caller is the first trial call. */
+                listeners.notifyListeners(Notifications.ATTEMPT_RESET);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after() {
+        after(timer != null ? timer.stop() : -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after(long durationInNanos) {
+        for (;;) {
+            long current = state.get();
+
+            switch (stateOf(current)) {
+            case CLOSED:
+                if (policy != null) {
+                    if (policy.recordSuccess(durationInNanos)) {
+                        trip(current);
+                    }
+                    return;
+                }
+
+                if (countOf(current) == 0 || state.compareAndSet(current, pack(CLOSED, 0, 0))) {
+                    return;
+                }
+                break;
+
+            case HALF_OPEN:
+                int trials = countOf(current);
+                int successes = (trials >>> SUCCESS_SHIFT) + 1;
+
+                if (successes >= halfOpenSuccessQuorum) {
+                    if (state.compareAndSet(current, pack(CLOSED, 0, 0))) {
+                        closed();
+                        return;
+                    }
+                } else if (state.compareAndSet(current, pack(HALF_OPEN, trials + (1 << SUCCESS_SHIFT), 0))) {
+                    return;
+                }
+                break;
+
+            default:
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleFailure() {
+        handleFailure(timer != null ? timer.stop() : -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleFailure(long durationInNanos) {
+        for (;;) {
+            long current = state.get();
+
+            switch (stateOf(current)) {
+            case CLOSED:
+                if (policy != null) {
+                    if (policy.recordFailure(durationInNanos)) {
+                        trip(current);
+                    }
+                    return;
+                }
+
+                int count = countOf(current) + 1;
+
+                if (count > threshold) {
+                    if (trip(current)) {
+                        return;
+                    }
+                } else if (state.compareAndSet(current, pack(CLOSED, count, 0))) {
+                    return;
+                }
+                break;
+
+            case HALF_OPEN:
+                if (trip(current)) {
+                    return;
+                }
+                break;
+
+            default:
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void attemptReset() {
+        for (;;) {
+            long current = state.get();
+
+            if (stateOf(current) == HALF_OPEN) {
+                return;
+            }
+
+            if (state.compareAndSet(current, pack(HALF_OPEN, 0, 0))) {
+                listeners.notifyListeners(Notifications.ATTEMPT_RESET);
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void tripBreaker() {
+        for (;;) {
+            long current = state.get();
+
+            if (stateOf(current) == OPEN) {
+
+                /* Already open - restart the timeout without counting another trip. */
+                int trips = Math.max(consecutiveTrips.get(), 1);
+
+                if (state.compareAndSet(current, pack(OPEN, 0, now() + backoff.timeoutFor(trips)))) {
+                    return;
+                }
+            } else if (trip(current)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        for (;;) {
+            long current = state.get();
+
+            if (state.compareAndSet(current, pack(CLOSED, 0, 0))) {
+                if (stateOf(current) == CLOSED) {
+                    if (policy != null) {
+                        policy.reset();
+                    }
+                } else {
+                    closed();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCurrentState() {
+        return STATE_NAMES[stateOf(state.get())];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTimeToResetInMillis() {
+        long current = state.get();
+
+        switch (stateOf(current)) {
+        case CLOSED:
+            return -1;
+        case OPEN:
+            return Math.max(resetTimeOf(current) - now(), 0);
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTripCount() {
+        return this.tripCount.get();
+    }
+
+    /**
+     * Attempts to move from the observed non-open state to open. Only the thread that succeeds counts the trip and
+     * notifies listeners.
+     * 
+     * @param current
+     *            the observed state word
+     * @return true if this thread tripped the breaker, false if the state changed in the meantime
+     */
+    private boolean trip(long current) {
+        int trips = consecutiveTrips.get() + 1;
+
+        if (!state.compareAndSet(current, pack(OPEN, 0, now() + backoff.timeoutFor(trips)))) {
+            return false;
+        }
+
+        consecutiveTrips.set(trips);
+        tripCount.incrementAndGet();
+        listeners.notifyListeners(Notifications.TRIPPED);
+        return true;
+    }
+
+    /**
+     * Called by the thread that moved this {@link CircuitBreaker} to closed from another state.
+     */
+    private void closed() {
+        consecutiveTrips.set(0);
+
+        if (policy != null) {
+            policy.reset();
+        }
+
+        listeners.notifyListeners(Notifications.RESET);
+    }
+
+    /**
+     * Returns the time in milliseconds since this {@link CircuitBreaker} was created.
+     * 
+     * @return the non-negative time
+     */
+    private long now() {
+        return (System.currentTimeMillis() - epoch) & TIME_MASK;
+    }
+
+    /**
+     * Packs the fields of the state word.
+     * 
+     * @param stateValue
+     *            the state
+     * @param count
+     *            the consecutive failure count
+     * @param resetTime
+     *            the reset time in milliseconds since creation
+     * @return the packed state word
+     */
+    private static long pack(int stateValue, int count, long resetTime) {
+        return ((long) stateValue << STATE_SHIFT) | ((long) Math.min(count, COUNT_MASK) << COUNT_SHIFT)
+                | (resetTime & TIME_MASK);
+    }
+
+    /**
+     * Returns the state from a packed state word.
+     * 
+     * @param word
+     *            the packed state word
+     * @return the state
+     */
+    private static int stateOf(long word) {
+        return (int) (word >>> STATE_SHIFT);
+    }
+
+    /**
+     * Returns the consecutive failure count from a packed state word.
+     * 
+     * @param word
+     *            the packed state word
+     * @return the failure count
+     */
+    private static int countOf(long word) {
+        return (int) (word >>> COUNT_SHIFT) & COUNT_MASK;
+    }
+
+    /**
+     * Returns the reset time from a packed state word.
+     * 
+     * @param word
+     *            the packed state word
+     * @return the time in milliseconds since creation after which an open {@link CircuitBreaker} may reset
+     */
+    private static long resetTimeOf(long word) {
+        return word & TIME_MASK;
+    }
+
+}
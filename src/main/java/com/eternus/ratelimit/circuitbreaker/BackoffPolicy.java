@@ -0,0 +1,94 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Calculates how long a tripped {@link CircuitBreaker} stays open. The timeout grows by a multiplier for each
+ * consecutive trip without a successful reset, up to a cap, and is randomly shortened by up to a jitter factor so
+ * that many instances tripped by the same outage do not all probe the integration point at the same moment, even once
+ * their timeouts have reached the cap.
+ * 
+ * @author jabley
+ * 
+ */
+final class BackoffPolicy {
+
+    /**
+     * The timeout in milliseconds after the first trip.
+     */
+    private final int baseTimeout;
+
+    /**
+     * The factor by which the timeout grows for each consecutive trip.
+     */
+    private final double multiplier;
+
+    /**
+     * The largest timeout in milliseconds.
+     */
+    private final int maxTimeout;
+
+    /**
+     * The fraction of the timeout by which it is randomly shortened.
+     */
+    private final double jitter;
+
+    /**
+     * Creates a new {@link BackoffPolicy}.
+     * 
+     * @param baseTimeout
+     *            the timeout in milliseconds after the first trip
+     * @param multiplier
+     *            the factor, at least 1, by which the timeout grows for each consecutive trip
+     * @param maxTimeout
+     *            the largest timeout in milliseconds; values below {@code baseTimeout} are treated as
+     *            {@code baseTimeout}
+     * @param jitter
+     *            the fraction, between 0 and 1, of the timeout by which it is randomly shortened
+     */
+    BackoffPolicy(int baseTimeout, double multiplier, int maxTimeout, double jitter) {
+        this.baseTimeout = baseTimeout;
+        this.multiplier = multiplier;
+        this.maxTimeout = Math.max(maxTimeout, baseTimeout);
+        this.jitter = jitter;
+    }
+
+    /**
+     * Returns the timeout in milliseconds for the specified number of consecutive trips.
+     * 
+     * @param consecutiveTrips
+     *            the positive number of trips since the {@link CircuitBreaker} last closed successfully
+     * @return the non-negative timeout in milliseconds
+     */
+    int timeoutFor(int consecutiveTrips) {
+        double timeout = baseTimeout;
+
+        if (multiplier > 1 && consecutiveTrips > 1) {
+            timeout = Math.min(baseTimeout * Math.pow(multiplier, consecutiveTrips - 1), maxTimeout);
+        }
+
+        if (jitter > 0) {
+
+            /* Jitter within the cap, so that capped timeouts are still spread. */
+            timeout *= 1 - jitter * ThreadLocalRandom.current().nextDouble();
+        }
+
+        return (int) Math.max(timeout, 0);
+    }
+
+}
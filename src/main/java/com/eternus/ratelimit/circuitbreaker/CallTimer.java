@@ -0,0 +1,71 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+/**
+ * Times guarded calls on behalf of clients which only call {@link CircuitBreaker#before()} and
+ * {@link CircuitBreaker#after()}, by remembering the start time of the current call on each thread.
+ * 
+ * @author jabley
+ * 
+ */
+final class CallTimer {
+
+    /**
+     * Value of a start time which has not been set.
+     */
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    /**
+     * The start time in nanoseconds of the current call on each thread. A one-element array is reused per thread, so
+     * nothing is allocated per call.
+     */
+    private final ThreadLocal<long[]> startTimes = new ThreadLocal<long[]>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected long[] initialValue() {
+            return new long[] { NOT_STARTED };
+        }
+    };
+
+    /**
+     * Records the start of a call on the current thread.
+     */
+    void start() {
+        startTimes.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * Returns the time since the start of the call on the current thread, and forgets the start time.
+     * 
+     * @return the elapsed time in nanoseconds, or -1 if no call was started on this thread
+     */
+    long stop() {
+        long[] start = startTimes.get();
+
+        if (start[0] == NOT_STARTED) {
+            return -1;
+        }
+
+        long elapsed = System.nanoTime() - start[0];
+        start[0] = NOT_STARTED;
+        return elapsed;
+    }
+
+}
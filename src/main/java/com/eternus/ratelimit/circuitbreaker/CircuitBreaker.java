@@ -44,6 +44,18 @@ public interface CircuitBreaker {
      */
     public void after();
 
+    /**
+     * Clients should call this method after doing any potentially problematic Integration Point calls, if there weren't
+     * any problems and the client measured how long the call took itself. The default implementation ignores the
+     * duration and calls {@link #after()}.
+     * 
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
+     */
+    public default void after(long durationInNanos) {
+        after();
+    }
+
     /**
      * Called to signal to this {@link CircuitBreaker} that it should attempt to reset and see if the guarded operation
      * is successful.
@@ -60,6 +72,23 @@ public interface CircuitBreaker {
      */
     public void before() throws CircuitBreakerException;
 
+    /**
+     * Clients can call this method instead of {@link #before()} before doing any potentially problematic Integration
+     * Point calls. It does the same thing, but returns false rather than throwing an exception if the call should not
+     * go ahead, so failing fast while this {@link CircuitBreaker} is open costs no allocation. The default
+     * implementation calls {@link #before()} and catches the exception, so implementations should override it.
+     * 
+     * @return true if the call may go ahead, otherwise false
+     */
+    public default boolean tryBefore() {
+        try {
+            before();
+            return true;
+        } catch (CircuitBreakerException e) {
+            return false;
+        }
+    }
+
     /**
      * Returns a human-readable representation of the current state of this {@link CircuitBreaker}.
      * 
@@ -95,6 +124,18 @@ public interface CircuitBreaker {
      */
     public void handleFailure();
 
+    /**
+     * Clients should call this method after doing any potentially problematic Integration Point calls, if there was a
+     * failure and the client measured how long the call took itself. The default implementation ignores the duration
+     * and calls {@link #handleFailure()}.
+     * 
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
+     */
+    public default void handleFailure(long durationInNanos) {
+        handleFailure();
+    }
+
     /**
      * Called to signal to this {@link CircuitBreaker} that it should reset to fully closed and let the guarded
      * operation attempts happen normally.
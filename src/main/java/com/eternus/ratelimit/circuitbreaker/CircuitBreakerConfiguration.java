@@ -15,6 +15,9 @@
  */
 package com.eternus.ratelimit.circuitbreaker;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Configuration bean for a {@link CircuitBreaker} that controls the {@link CircuitBreaker} behaviour in terms of how
  * sensitive it is to tripping and how long it will stay open, etc. This is designed to be injected by Spring, etc.
@@ -24,12 +27,6 @@ package com.eternus.ratelimit.circuitbreaker;
  */
 public class CircuitBreakerConfiguration {
 
-    /*
-     * An option considered was to implement an escalating timeout, a la TCP/IP. If it fails, wait 1 second, try again.
-     * If it fails, wait 2 seconds, try again. If it fails, wait 4 seconds, etc. Seemed like needless complexity at the
-     * time.
-     */
-
     /**
      * The number of times that a {@link CircuitBreaker} will fail before it trips.
      */
@@ -40,13 +37,139 @@ public class CircuitBreakerConfiguration {
      */
     private int timeout = 10000;
 
+    /**
+     * The failure rate percentage at or above which a {@link CircuitBreaker} trips. Zero means that the consecutive
+     * failure {@link #threshold} is used instead.
+     */
+    private float failureRateThreshold;
+
+    /**
+     * The number of most recent calls over which the failure rate is calculated.
+     */
+    private int slidingWindowSize = 100;
+
+    /**
+     * The minimum number of calls in the sliding window before the failure rate is considered.
+     */
+    private int minimumNumberOfCalls = 10;
+
+    /**
+     * The duration in milliseconds at or above which a call counts as slow. Zero means that durations are not measured.
+     */
+    private int slowCallDurationThresholdInMillis;
+
+    /**
+     * The slow call rate percentage at or above which a {@link CircuitBreaker} trips.
+     */
+    private float slowCallRateThreshold = 100;
+
+    /**
+     * The {@link Executor} used to notify {@link CircuitBreakerListener}s - may be null.
+     */
+    private Executor listenerExecutor;
+
+    /**
+     * Flag which selects the {@link AtomicCircuitBreaker} implementation rather than {@link CircuitBreakerImpl}.
+     */
+    private boolean allocationFree;
+
+    /**
+     * The number of trial calls permitted while a {@link CircuitBreaker} is half-open, or zero for no limit.
+     */
+    private int permittedHalfOpenCalls;
+
+    /**
+     * The number of successful trial calls needed for a half-open {@link CircuitBreaker} to close.
+     */
+    private int halfOpenSuccessQuorum = 1;
+
+    /**
+     * The factor by which the timeout grows for each consecutive trip without a successful reset.
+     */
+    private double backoffMultiplier = 1;
+
+    /**
+     * The largest time in milliseconds that a {@link CircuitBreaker} will stay open.
+     */
+    private int maxTimeout = 300000;
+
+    /**
+     * The fraction of the timeout by which it is randomly shortened on each trip.
+     */
+    private double jitterFactor;
+
     /**
      * Factory Method to return a new {@link CircuitBreaker} ready for use.
      * 
      * @return a non-null {@link CircuitBreaker}
      */
     public CircuitBreaker createCircuitBreaker() {
-        return new CircuitBreakerImpl(threshold, timeout);
+        if (allocationFree) {
+            return new AtomicCircuitBreaker(this);
+        }
+
+        return new CircuitBreakerImpl(this);
+    }
+
+    /**
+     * Returns a new {@link CircuitBreakerConfiguration} with the specified threshold and timeout, and default values
+     * for everything else.
+     * 
+     * @param threshold
+     *            the threshold
+     * @param timeout
+     *            the timeout in milliseconds
+     * @return a non-null {@link CircuitBreakerConfiguration}
+     */
+    static CircuitBreakerConfiguration defaults(int threshold, int timeout) {
+        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        config.setThreshold(threshold);
+        config.setTimeoutInMillis(timeout);
+        return config;
+    }
+
+    /**
+     * Factory Method to return a new {@link BackoffPolicy} for a {@link CircuitBreaker}.
+     * 
+     * @return a non-null {@link BackoffPolicy}
+     */
+    BackoffPolicy createBackoffPolicy() {
+        return new BackoffPolicy(timeout, backoffMultiplier, maxTimeout, jitterFactor);
+    }
+
+    /**
+     * Factory Method to return a new {@link TripPolicy} for a {@link CircuitBreaker}.
+     * 
+     * @return a non-null {@link TripPolicy}
+     */
+    TripPolicy createTripPolicy() {
+        if (!isSlowCallDetectionEnabled()) {
+            if (failureRateThreshold > 0) {
+                return new SlidingWindowPolicy(slidingWindowSize, minimumNumberOfCalls, failureRateThreshold);
+            }
+
+            return new ConsecutiveFailuresPolicy(threshold);
+        }
+
+        SlidingWindowPolicy window = new SlidingWindowPolicy(slidingWindowSize, minimumNumberOfCalls,
+                failureRateThreshold, TimeUnit.MILLISECONDS.toNanos(slowCallDurationThresholdInMillis),
+                slowCallRateThreshold);
+
+        if (failureRateThreshold > 0) {
+            return window;
+        }
+
+        /* Failures still trip on the consecutive failure threshold. */
+        return new CompositeTripPolicy(new ConsecutiveFailuresPolicy(threshold), window);
+    }
+
+    /**
+     * Returns true if a {@link CircuitBreaker} needs to measure how long each call takes.
+     * 
+     * @return true if slow call detection is enabled
+     */
+    boolean isSlowCallDetectionEnabled() {
+        return slowCallDurationThresholdInMillis > 0;
     }
 
     /**
@@ -86,4 +209,270 @@ public class CircuitBreakerConfiguration {
     public void setTimeoutInMillis(int timeout) {
         this.timeout = timeout;
     }
+
+    /**
+     * Returns the failure rate percentage at or above which a closed {@link CircuitBreaker} will trip. Zero means that
+     * the consecutive failure threshold is used instead.
+     * 
+     * @return the failure rate threshold
+     */
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Sets the failure rate percentage, over the sliding window of most recent calls, at or above which a closed
+     * {@link CircuitBreaker} will trip. A positive value replaces the consecutive failure threshold with the failure
+     * rate policy; zero restores it.
+     * 
+     * @param failureRateThreshold
+     *            the failure rate threshold to set - between 0 and 100
+     */
+    public void setFailureRateThreshold(float failureRateThreshold) {
+        if (failureRateThreshold >= 0 && failureRateThreshold <= 100) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+    }
+
+    /**
+     * Returns the number of most recent calls over which the failure rate is calculated.
+     * 
+     * @return the sliding window size
+     */
+    public int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    /**
+     * Sets the number of most recent calls over which the failure rate is calculated.
+     * 
+     * @param slidingWindowSize
+     *            the sliding window size to set - positive integer
+     */
+    public void setSlidingWindowSize(int slidingWindowSize) {
+        if (slidingWindowSize > 0) {
+            this.slidingWindowSize = slidingWindowSize;
+        }
+    }
+
+    /**
+     * Returns the minimum number of calls in the sliding window before the failure rate is considered.
+     * 
+     * @return the minimum number of calls
+     */
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    /**
+     * Sets the minimum number of calls in the sliding window before the failure rate is considered. Values larger than
+     * the sliding window size are treated as the sliding window size.
+     * 
+     * @param minimumNumberOfCalls
+     *            the minimum number of calls to set - positive integer
+     */
+    public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        if (minimumNumberOfCalls > 0) {
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+        }
+    }
+
+    /**
+     * Returns the duration in milliseconds at or above which a call counts as slow. Zero means that slow calls are not
+     * detected.
+     * 
+     * @return the slow call duration threshold
+     */
+    public int getSlowCallDurationThresholdInMillis() {
+        return slowCallDurationThresholdInMillis;
+    }
+
+    /**
+     * Sets the duration in milliseconds at or above which a call counts as slow, whether it succeeded or failed. A
+     * positive value makes a {@link CircuitBreaker} time each call between {@link CircuitBreaker#before()} and
+     * {@link CircuitBreaker#after()} or {@link CircuitBreaker#handleFailure()} on the same thread, and trip when the
+     * slow call rate over the sliding window reaches the {@link #setSlowCallRateThreshold(float) slow call rate
+     * threshold}; zero disables it.
+     * 
+     * @param slowCallDurationThresholdInMillis
+     *            the slow call duration threshold to set - non-negative integer
+     */
+    public void setSlowCallDurationThresholdInMillis(int slowCallDurationThresholdInMillis) {
+        if (slowCallDurationThresholdInMillis >= 0) {
+            this.slowCallDurationThresholdInMillis = slowCallDurationThresholdInMillis;
+        }
+    }
+
+    /**
+     * Returns the slow call rate percentage at or above which a closed {@link CircuitBreaker} will trip.
+     * 
+     * @return the slow call rate threshold
+     */
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Sets the slow call rate percentage, over the sliding window of most recent calls, at or above which a closed
+     * {@link CircuitBreaker} will trip. Only used when a slow call duration threshold is set.
+     * 
+     * @param slowCallRateThreshold
+     *            the slow call rate threshold to set - greater than 0 and at most 100
+     */
+    public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+        if (slowCallRateThreshold > 0 && slowCallRateThreshold <= 100) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+    }
+
+    /**
+     * Returns the {@link Executor} used to notify {@link CircuitBreakerListener}s of state changes.
+     * 
+     * @return the listener executor - may be null
+     */
+    public Executor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Sets the {@link Executor} used to notify {@link CircuitBreakerListener}s of state changes. Notifications for
+     * each {@link CircuitBreaker} are delivered in order, one at a time. A value of {@code null}, the default, means
+     * that listeners are notified synchronously on the thread which caused the state change.
+     * 
+     * @param listenerExecutor
+     *            the listener executor to set - may be null
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * Returns true if {@link #createCircuitBreaker()} returns an {@link AtomicCircuitBreaker}, otherwise false.
+     * 
+     * @return the allocation free flag
+     */
+    public boolean isAllocationFree() {
+        return allocationFree;
+    }
+
+    /**
+     * Sets whether {@link #createCircuitBreaker()} returns an {@link AtomicCircuitBreaker}, which keeps its state in a
+     * single atomic word and allocates nothing on transitions, rather than a {@link CircuitBreakerImpl}.
+     * 
+     * @param allocationFree
+     *            the allocation free flag to set
+     */
+    public void setAllocationFree(boolean allocationFree) {
+        this.allocationFree = allocationFree;
+    }
+
+    /**
+     * Returns the number of trial calls permitted while a {@link CircuitBreaker} is half-open. Zero means no limit.
+     * 
+     * @return the number of permitted half-open calls
+     */
+    public int getPermittedHalfOpenCalls() {
+        return permittedHalfOpenCalls;
+    }
+
+    /**
+     * Sets the number of trial calls permitted while a {@link CircuitBreaker} is half-open. Further callers are
+     * rejected with a {@link CircuitBreakerOpenException} until the trials decide whether to close or trip again. Zero,
+     * the default, means no limit.
+     * 
+     * @param permittedHalfOpenCalls
+     *            the number of permitted half-open calls to set - non-negative integer
+     */
+    public void setPermittedHalfOpenCalls(int permittedHalfOpenCalls) {
+        if (permittedHalfOpenCalls >= 0) {
+            this.permittedHalfOpenCalls = permittedHalfOpenCalls;
+        }
+    }
+
+    /**
+     * Returns the number of successful trial calls needed for a half-open {@link CircuitBreaker} to close.
+     * 
+     * @return the success quorum
+     */
+    public int getHalfOpenSuccessQuorum() {
+        return halfOpenSuccessQuorum;
+    }
+
+    /**
+     * Sets the number of successful trial calls needed for a half-open {@link CircuitBreaker} to close. Any failed trial
+     * trips it again. Values larger than a non-zero number of permitted half-open calls are treated as that number.
+     * 
+     * @param halfOpenSuccessQuorum
+     *            the success quorum to set - positive integer
+     */
+    public void setHalfOpenSuccessQuorum(int halfOpenSuccessQuorum) {
+        if (halfOpenSuccessQuorum > 0) {
+            this.halfOpenSuccessQuorum = halfOpenSuccessQuorum;
+        }
+    }
+
+    /**
+     * Returns the factor by which the open timeout grows for each consecutive trip without a successful reset.
+     * 
+     * @return the backoff multiplier
+     */
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    /**
+     * Sets the factor by which the open timeout grows for each consecutive trip without a successful reset. A value of
+     * 2 doubles the timeout each time a half-open trial fails. A clean reset restores the base timeout.
+     * 
+     * @param backoffMultiplier
+     *            the backoff multiplier to set - at least 1
+     */
+    public void setBackoffMultiplier(double backoffMultiplier) {
+        if (backoffMultiplier >= 1) {
+            this.backoffMultiplier = backoffMultiplier;
+        }
+    }
+
+    /**
+     * Returns the largest time in milliseconds that a {@link CircuitBreaker} will stay open when backing off.
+     * 
+     * @return the maximum timeout
+     */
+    public int getMaxTimeoutInMillis() {
+        return maxTimeout;
+    }
+
+    /**
+     * Sets the largest time in milliseconds that a {@link CircuitBreaker} will stay open when backing off. Values below
+     * the timeout are treated as the timeout.
+     * 
+     * @param maxTimeout
+     *            the maximum timeout to set
+     */
+    public void setMaxTimeoutInMillis(int maxTimeout) {
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * Returns the fraction of the open timeout by which it is randomly shortened on each trip.
+     * 
+     * @return the jitter factor
+     */
+    public double getJitterFactor() {
+        return jitterFactor;
+    }
+
+    /**
+     * Sets the fraction of the open timeout by which it is randomly shortened on each trip, so that instances tripped
+     * by the same outage spread out their reset attempts, even once their timeouts have reached the maximum. A value of
+     * 0.2 gives a timeout between 80% and 100% of the calculated value.
+     * 
+     * @param jitterFactor
+     *            the jitter factor to set - between 0 and 1
+     */
+    public void setJitterFactor(double jitterFactor) {
+        if (jitterFactor >= 0 && jitterFactor <= 1) {
+            this.jitterFactor = jitterFactor;
+        }
+    }
 }
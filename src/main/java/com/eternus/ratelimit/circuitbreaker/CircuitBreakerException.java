@@ -77,4 +77,23 @@ public class CircuitBreakerException extends Exception {
     public CircuitBreakerException(Throwable cause) {
         super(cause);
     }
+
+    /**
+     * Constructs a new exception with the specified detail message, cause, suppression enabled or disabled, and
+     * writable stack trace enabled or disabled. Subclasses can disable the stack trace for exceptions which are
+     * thrown often and carry no useful trace, so that they can be created once and thrown many times.
+     * 
+     * @param message
+     *            the detail message
+     * @param cause
+     *            the cause - may be null
+     * @param enableSuppression
+     *            whether or not suppression is enabled
+     * @param writableStackTrace
+     *            whether or not the stack trace should be writable
+     */
+    protected CircuitBreakerException(String message, Throwable cause, boolean enableSuppression,
+            boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
 }
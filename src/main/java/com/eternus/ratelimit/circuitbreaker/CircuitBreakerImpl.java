@@ -15,11 +15,13 @@
  */
 package com.eternus.ratelimit.circuitbreaker;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.eternus.ratelimit.circuitbreaker.CircuitBreakerListeners.Notifications;
+
 /**
  * Default implementation of {@link CircuitBreaker}.
  * 
@@ -34,9 +36,35 @@ public class CircuitBreakerImpl implements CircuitBreaker {
     private final int threshold;
 
     /**
-     * The timeout in milliseconds after which the open circuit breaker will attempt to reset.
+     * The {@link BackoffPolicy} which decides how long this {@link CircuitBreaker} stays open.
+     */
+    private final BackoffPolicy backoff;
+
+    /**
+     * The number of trips since this {@link CircuitBreaker} last reset.
+     */
+    private final AtomicInteger consecutiveTrips;
+
+    /**
+     * The non-null {@link TripPolicy} used while this {@link CircuitBreaker} is closed.
+     */
+    private final TripPolicy policy;
+
+    /**
+     * The {@link CallTimer} which times calls between {@link #before()} and {@link #after()}, or null if slow calls are
+     * not detected.
      */
-    private final int timeout;
+    private final CallTimer timer;
+
+    /**
+     * The number of trial calls permitted while half-open, or zero for no limit.
+     */
+    private final int permittedHalfOpenCalls;
+
+    /**
+     * The number of successful trial calls needed to close again.
+     */
+    private final int halfOpenSuccessQuorum;
 
     /**
      * Count of the number of times this {@link CircuitBreaker} has been tripped.
@@ -49,9 +77,9 @@ public class CircuitBreakerImpl implements CircuitBreaker {
     private final AtomicReference<CircuitBreakerState> state;
 
     /**
-     * The non-null list of {@link CircuitBreakerListener}s that wish to be notified of state changes.
+     * The non-null {@link CircuitBreakerListeners} that wish to be notified of state changes.
      */
-    private final List<CircuitBreakerListener> listeners;
+    private final CircuitBreakerListeners listeners;
 
     /**
      * Creates a new {@link CircuitBreakerImpl} with the specified threshold and timeout.
@@ -62,11 +90,28 @@ public class CircuitBreakerImpl implements CircuitBreaker {
      *            the time in milliseconds needed for this tripped {@link CircuitBreaker} to attempt a reset
      */
     public CircuitBreakerImpl(int threshold, int timeout) {
-        this.threshold = threshold;
-        this.timeout = timeout;
+        this(CircuitBreakerConfiguration.defaults(threshold, timeout));
+    }
+
+    /**
+     * Creates a new {@link CircuitBreakerImpl} with the settings of the specified {@link CircuitBreakerConfiguration}.
+     * 
+     * @param config
+     *            the non-null {@link CircuitBreakerConfiguration}
+     */
+    CircuitBreakerImpl(CircuitBreakerConfiguration config) {
+        this.threshold = config.getThreshold();
+        this.backoff = config.createBackoffPolicy();
+        this.consecutiveTrips = new AtomicInteger();
+        this.policy = config.createTripPolicy();
+        this.timer = config.isSlowCallDetectionEnabled() ? new CallTimer() : null;
+        this.permittedHalfOpenCalls = config.getPermittedHalfOpenCalls();
+        this.halfOpenSuccessQuorum = permittedHalfOpenCalls > 0 ? Math.min(config.getHalfOpenSuccessQuorum(),
+                permittedHalfOpenCalls) : config.getHalfOpenSuccessQuorum();
         this.tripCount = new AtomicLong();
-        this.listeners = new ArrayList<CircuitBreakerListener>();
-        this.state = new AtomicReference<CircuitBreakerState>(new ClosedState(threshold));
+        this.listeners = new CircuitBreakerListeners();
+        this.listeners.setExecutor(config.getListenerExecutor());
+        this.state = new AtomicReference<CircuitBreakerState>(new ClosedState(policy));
     }
 
     /**
@@ -76,34 +121,101 @@ public class CircuitBreakerImpl implements CircuitBreaker {
         this.listeners.add(listener);
     }
 
+    /**
+     * Sets the {@link Executor} used to notify {@link CircuitBreakerListener}s of state changes, in order and off the
+     * thread that caused the change. A value of {@code null}, the default, means that listeners are notified
+     * synchronously.
+     * 
+     * @param executor
+     *            an {@link Executor} - may be null
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listeners.setExecutor(executor);
+    }
+
     /**
      * {@inheritDoc}
      */
     public void after() {
-        getState().after(this);
+        after(timer != null ? timer.stop() : -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after(long durationInNanos) {
+        getState().after(this, durationInNanos);
     }
 
     /**
      * {@inheritDoc}
      */
     public void attemptReset() {
-        setState(new HalfOpenState());
+        while (!attemptReset(getState())) {
+
+            /* Another transition won the race; move on from the state it installed. */
+        }
+    }
 
-        notifyListeners(Notifications.ATTEMPT_RESET);
+    /**
+     * Moves to half-open if the current state is still the observed one, so that of the threads which see the reset
+     * timeout expire, only one installs the {@link HalfOpenState} and the others use it.
+     * 
+     * @param from
+     *            the non-null observed {@link CircuitBreakerState}
+     * @return true if this thread made the transition, otherwise false
+     */
+    boolean attemptReset(CircuitBreakerState from) {
+        if (!this.state.compareAndSet(from, new HalfOpenState(permittedHalfOpenCalls, halfOpenSuccessQuorum))) {
+            return false;
+        }
+
+        listeners.notifyListeners(Notifications.ATTEMPT_RESET);
+        return true;
     }
 
     /**
      * {@inheritDoc}
      */
     public void before() throws CircuitBreakerException {
-        getState().before(this);
+        CircuitBreakerOpenException rejection = getState().before(this);
+
+        if (rejection != null) {
+            throw rejection;
+        }
+
+        if (timer != null) {
+            timer.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean tryBefore() {
+        if (getState().before(this) != null) {
+            return false;
+        }
+
+        if (timer != null) {
+            timer.start();
+        }
+
+        return true;
     }
 
     /**
      * {@inheritDoc}
      */
     public void handleFailure() {
-        getState().handleFailure(this);
+        handleFailure(timer != null ? timer.stop() : -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleFailure(long durationInNanos) {
+        getState().handleFailure(this, durationInNanos);
     }
 
     /**
@@ -138,126 +250,77 @@ public class CircuitBreakerImpl implements CircuitBreaker {
      * {@inheritDoc}
      */
     public void tripBreaker() {
-        tripCount.incrementAndGet();
-        setState(new OpenState(this.timeout));
+        while (!tripBreaker(getState())) {
 
-        notifyListeners(Notifications.TRIPPED);
+            /* Another transition won the race; move on from the state it installed. */
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Trips the breaker if the current state is still the observed one, so that concurrent failures count one trip.
+     * 
+     * @param from
+     *            the non-null observed {@link CircuitBreakerState}
+     * @return true if this thread tripped the breaker, otherwise false
      */
-    public void reset() {
-        setState(new ClosedState(threshold));
+    boolean tripBreaker(CircuitBreakerState from) {
+        if (getState() != from) {
+            return false;
+        }
 
-        notifyListeners(Notifications.RESET);
-    }
+        int trips = consecutiveTrips.get() + 1;
 
-    /**
-     * Returns the non-null current state.
-     * 
-     * @return a non-null {@link CircuitBreakerState}
-     */
-    private CircuitBreakerState getState() {
-        return this.state.get();
+        if (!this.state.compareAndSet(from, new OpenState(backoff.timeoutFor(trips)))) {
+            return false;
+        }
+
+        consecutiveTrips.incrementAndGet();
+        tripCount.incrementAndGet();
+        listeners.notifyListeners(Notifications.TRIPPED);
+        return true;
     }
 
     /**
-     * Notify {@link CircuitBreakerListener}s with the appropriate {@link Notifications} function.
-     * 
-     * @param notifications
-     *            a non-null {@link Notifications}
+     * {@inheritDoc}
      */
-    private void notifyListeners(Notifications notifications) {
-        for (CircuitBreakerListener listener : this.listeners) {
-            try {
-                notifications.notifyListener(listener);
-            } catch (RuntimeException e) {
-
-                /* ignore and carry on processing the others */
-            }
+    public void reset() {
+        while (!reset(getState())) {
+
+            /* Another transition won the race; move on from the state it installed. */
         }
     }
 
     /**
-     * Sets the non-null new state.
+     * Resets to closed if the current state is still the observed one. Only the thread which makes the transition
+     * clears the {@link TripPolicy}, so a thread which loses the race cannot clear the outcomes of the new
+     * {@link ClosedState}; outcomes recorded between the transition and the clear are dropped with the old ones.
      * 
-     * @param newState
-     *            the non-null new {@link CircuitBreakerState}
+     * @param from
+     *            the non-null observed {@link CircuitBreakerState}
+     * @return true if this thread reset the breaker, otherwise false
      */
-    private void setState(CircuitBreakerState newState) {
-        this.state.set(newState);
-    }
+    boolean reset(CircuitBreakerState from) {
+        if (getState() != from) {
+            return false;
+        }
 
-    /**
-     * Simple interface defining a Functor for notifying listeners.
-     * 
-     * @author jabley
-     * 
-     */
-    interface NotifyListener {
-
-        /**
-         * Method called to notify {@link CircuitBreakerListener}s of a state change in this {@link CircuitBreaker}.
-         * 
-         * @param listener
-         *            a non-null {@link CircuitBreakerListener}
-         */
-        void notifyListener(CircuitBreakerListener listener);
+        if (!this.state.compareAndSet(from, new ClosedState(policy))) {
+            return false;
+        }
+
+        policy.reset();
+        consecutiveTrips.set(0);
+        listeners.notifyListeners(Notifications.RESET);
+        return true;
     }
 
     /**
-     * Enumeration defining the possible notifications that we can pass to {@link CircuitBreakerListener}s.
-     * 
-     * @author jabley
+     * Returns the non-null current state.
      * 
+     * @return a non-null {@link CircuitBreakerState}
      */
-    private static enum Notifications implements NotifyListener {
-
-        /**
-         * {@link NotifyListener} implementation for when {@link CircuitBreaker#attemptReset()} has been called.
-         */
-        ATTEMPT_RESET() {
-
-            /**
-             * {@inheritDoc}
-             */
-            public void notifyListener(CircuitBreakerListener listener) {
-                listener.attemptReset();
-            }
-        },
-
-        /**
-         * {@link NotifyListener} implementation for when {@link CircuitBreaker#reset()} has been called.
-         */
-        RESET() {
-
-            /**
-             * {@inheritDoc}
-             */
-            public void notifyListener(CircuitBreakerListener listener) {
-                listener.reset();
-            }
-        },
-
-        /**
-         * {@link NotifyListener} implementation for when {@link CircuitBreaker#tripBreaker()} has been called.
-         */
-        TRIPPED() {
-
-            /**
-             * {@inheritDoc}
-             */
-            public void notifyListener(CircuitBreakerListener listener) {
-                listener.tripped();
-            }
-        };
-
-        /**
-         * {@inheritDoc}
-         */
-        public abstract void notifyListener(CircuitBreakerListener listener);
-        
+    CircuitBreakerState getState() {
+        return this.state.get();
     }
 
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Thread-safe registry of the {@link CircuitBreakerListener}s of a single {@link CircuitBreaker}, which delivers
+ * state change notifications to them.
+ * </p>
+ * 
+ * <p>
+ * Without an {@link Executor}, listeners are notified on the thread that caused the state change. With an
+ * {@link Executor}, notifications are queued and delivered by at most one task at a time, so listeners see them in the
+ * order the state changes happened and a slow listener never holds up a request thread.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+class CircuitBreakerListeners implements Runnable {
+
+    /**
+     * The non-null list of {@link CircuitBreakerListener}s that wish to be notified of state changes.
+     */
+    private final List<CircuitBreakerListener> listeners;
+
+    /**
+     * The notifications waiting to be delivered by the {@link #executor}.
+     */
+    private final Queue<Notifications> pending;
+
+    /**
+     * Flag which is set while a task is scheduled to deliver the pending notifications.
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * The {@link Executor} used to deliver notifications - may be null.
+     */
+    private volatile Executor executor;
+
+    /**
+     * Creates a new {@link CircuitBreakerListeners} with no listeners which notifies synchronously.
+     */
+    CircuitBreakerListeners() {
+        this.listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+        this.pending = new ConcurrentLinkedQueue<Notifications>();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Registers a listener. This may be called at any time, concurrently with notifications.
+     * 
+     * @param listener
+     *            a non-null {@link CircuitBreakerListener}
+     */
+    void add(CircuitBreakerListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Sets the {@link Executor} used to deliver notifications. A value of {@code null} means that listeners are
+     * notified synchronously.
+     * 
+     * @param executor
+     *            an {@link Executor} - may be null
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Notify {@link CircuitBreakerListener}s with the appropriate {@link Notifications} function.
+     * 
+     * @param notifications
+     *            a non-null {@link Notifications}
+     */
+    void notifyListeners(Notifications notifications) {
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+
+        Executor current = this.executor;
+
+        if (current == null) {
+            deliver(notifications);
+            return;
+        }
+
+        this.pending.offer(notifications);
+
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                current.execute(this);
+            } catch (RejectedExecutionException e) {
+
+                /* Better late than never - deliver on this thread, still in order. */
+                run();
+            }
+        }
+    }
+
+    /**
+     * Delivers the pending notifications in order.
+     */
+    public void run() {
+        do {
+            Notifications notifications;
+
+            while ((notifications = this.pending.poll()) != null) {
+                deliver(notifications);
+            }
+
+            this.scheduled.set(false);
+
+            /* Pick up anything offered after the queue was drained but before the flag was cleared. */
+        } while (!this.pending.isEmpty() && this.scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Delivers a notification to each of the listeners in turn.
+     * 
+     * @param notifications
+     *            a non-null {@link Notifications}
+     */
+    private void deliver(Notifications notifications) {
+        for (CircuitBreakerListener listener : this.listeners) {
+            try {
+                notifications.notifyListener(listener);
+            } catch (RuntimeException e) {
+
+                /* ignore and carry on processing the others */
+            }
+        }
+    }
+
+    /**
+     * Simple interface defining a Functor for notifying listeners.
+     * 
+     * @author jabley
+     * 
+     */
+    interface NotifyListener {
+
+        /**
+         * Method called to notify {@link CircuitBreakerListener}s of a state change in this {@link CircuitBreaker}.
+         * 
+         * @param listener
+         *            a non-null {@link CircuitBreakerListener}
+         */
+        void notifyListener(CircuitBreakerListener listener);
+    }
+
+    /**
+     * Enumeration defining the possible notifications that we can pass to {@link CircuitBreakerListener}s.
+     * 
+     * @author jabley
+     * 
+     */
+    static enum Notifications implements NotifyListener {
+
+        /**
+         * {@link NotifyListener} implementation for when {@link CircuitBreaker#attemptReset()} has been called.
+         */
+        ATTEMPT_RESET() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void notifyListener(CircuitBreakerListener listener) {
+                listener.attemptReset();
+            }
+        },
+
+        /**
+         * {@link NotifyListener} implementation for when {@link CircuitBreaker#reset()} has been called.
+         */
+        RESET() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void notifyListener(CircuitBreakerListener listener) {
+                listener.reset();
+            }
+        },
+
+        /**
+         * {@link NotifyListener} implementation for when {@link CircuitBreaker#tripBreaker()} has been called.
+         */
+        TRIPPED() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void notifyListener(CircuitBreakerListener listener) {
+                listener.tripped();
+            }
+        };
+
+        /**
+         * {@inheritDoc}
+         */
+        public abstract void notifyListener(CircuitBreakerListener listener);
+
+    }
+
+}
@@ -28,6 +28,19 @@ public class CircuitBreakerOpenException extends CircuitBreakerException {
      */
     private static final long serialVersionUID = -4097710178233282483L;
 
+    /**
+     * Preallocated exception thrown while a {@link CircuitBreaker} is open. It has no stack trace, so throwing it
+     * costs no allocation and no stack walk, which matters most when every call is failing fast.
+     */
+    static final CircuitBreakerOpenException OPEN = new CircuitBreakerOpenException(
+            "Open CircuitBreaker not yet ready for use.", null, false, false);
+
+    /**
+     * Preallocated exception thrown while a {@link CircuitBreaker} is half-open and all of its trial calls are taken.
+     */
+    static final CircuitBreakerOpenException NO_TRIAL_CALLS = new CircuitBreakerOpenException(
+            "Half-open CircuitBreaker has no trial calls available.", null, false, false);
+
     /**
      * Constructs a new exception with <code>null</code> as its detail message. The cause is not initialized, and may
      * subsequently be initialized by a call to {@link #initCause}.
@@ -77,4 +90,22 @@ public class CircuitBreakerOpenException extends CircuitBreakerException {
     public CircuitBreakerOpenException(Throwable cause) {
         super(cause);
     }
+
+    /**
+     * Constructs a new exception with the specified detail message, cause, suppression enabled or disabled, and
+     * writable stack trace enabled or disabled.
+     * 
+     * @param message
+     *            the detail message
+     * @param cause
+     *            the cause - may be null
+     * @param enableSuppression
+     *            whether or not suppression is enabled
+     * @param writableStackTrace
+     *            whether or not the stack trace should be writable
+     */
+    protected CircuitBreakerOpenException(String message, Throwable cause, boolean enableSuppression,
+            boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
 }
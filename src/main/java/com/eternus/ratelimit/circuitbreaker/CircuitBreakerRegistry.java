@@ -0,0 +1,338 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eternus.ratelimit.Key;
+
+/**
+ * <p>
+ * Registry of {@link CircuitBreaker}s, one per {@link Key}, created lazily from a {@link CircuitBreakerConfiguration}
+ * template. Use it to guard each downstream host or tenant with its own {@link CircuitBreaker}.
+ * </p>
+ * 
+ * <p>
+ * Lookups of existing {@link CircuitBreaker}s are a lock-free map read. Clients should call {@link #evictIdle()}
+ * periodically, for example from a scheduled executor; each call evicts the closed {@link CircuitBreaker}s which have
+ * not been looked up since the previous call. Open and half-open {@link CircuitBreaker}s are never evicted, since they
+ * are protecting an integration point. A maximum size can also be set, which evicts closed {@link CircuitBreaker}s not
+ * looked up in the current period when exceeded. That sweep runs at most once per period, since a second one would only
+ * find {@link CircuitBreaker}s which have closed in the meantime; until the next period the registry may grow past
+ * the maximum size rather than scan every {@link CircuitBreaker} on each miss.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class CircuitBreakerRegistry {
+
+    /**
+     * The state of a {@link CircuitBreaker} which may be evicted.
+     */
+    private static final String CLOSED = "CLOSED";
+
+    /**
+     * The state of a half-open {@link CircuitBreaker}.
+     */
+    private static final String HALF_OPEN = "HALF_OPEN";
+
+    /**
+     * The non-null template used to create new {@link CircuitBreaker}s.
+     */
+    private final CircuitBreakerConfiguration template;
+
+    /**
+     * The {@link CircuitBreaker}s, keyed by {@link Key}.
+     */
+    private final ConcurrentMap<Key, Registration> breakers;
+
+    /**
+     * The number of {@link CircuitBreaker}s created.
+     */
+    private final AtomicLong createdCount;
+
+    /**
+     * The number of {@link CircuitBreaker}s evicted.
+     */
+    private final AtomicLong evictedCount;
+
+    /**
+     * The total number of trips of the {@link CircuitBreaker}s which have been evicted.
+     */
+    private final AtomicLong evictedTripCount;
+
+    /**
+     * The current eviction period, incremented by each call to {@link #evictIdle()}.
+     */
+    private volatile int period;
+
+    /**
+     * The last period in which a full registry was swept for closed {@link CircuitBreaker}s to evict.
+     */
+    private final AtomicInteger sweptPeriod;
+
+    /**
+     * The maximum number of {@link CircuitBreaker}s before closed ones are evicted early.
+     */
+    private volatile int maximumSize = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new {@link CircuitBreakerRegistry}.
+     * 
+     * @param template
+     *            the non-null {@link CircuitBreakerConfiguration} used to create each {@link CircuitBreaker}
+     */
+    public CircuitBreakerRegistry(CircuitBreakerConfiguration template) {
+        if (template == null) {
+            throw new IllegalArgumentException("template cannot be null");
+        }
+        this.template = template;
+        this.breakers = new ConcurrentHashMap<Key, Registration>();
+        this.createdCount = new AtomicLong();
+        this.evictedCount = new AtomicLong();
+        this.evictedTripCount = new AtomicLong();
+        this.sweptPeriod = new AtomicInteger(-1);
+    }
+
+    /**
+     * Returns the {@link CircuitBreaker} for the specified {@link Key}, creating it if necessary.
+     * 
+     * @param key
+     *            the non-null {@link Key}
+     * @return a non-null {@link CircuitBreaker}
+     */
+    public CircuitBreaker getCircuitBreaker(Key key) {
+        Registration entry = breakers.get(key);
+
+        if (entry == null) {
+            entry = create(key);
+        }
+
+        int current = this.period;
+
+        /* Only write when the period has moved on, to keep lookups from contending on the entry. */
+        if (entry.period != current) {
+            entry.period = current;
+        }
+
+        return entry.breaker;
+    }
+
+    /**
+     * Evicts the closed {@link CircuitBreaker}s which have not been looked up since the previous call to this method,
+     * and starts a new period.
+     * 
+     * @return the number of {@link CircuitBreaker}s evicted
+     */
+    public synchronized int evictIdle() {
+        int previous = this.period;
+        this.period = previous + 1;
+        return evictClosedBefore(previous);
+    }
+
+    /**
+     * Returns the maximum number of {@link CircuitBreaker}s held before closed ones not looked up in the current period
+     * are evicted early.
+     * 
+     * @return the maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of {@link CircuitBreaker}s held before closed ones not looked up in the current period
+     * are evicted early. Open and half-open {@link CircuitBreaker}s are kept even if that means exceeding it.
+     * 
+     * @param maximumSize
+     *            the positive maximum size
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize > 0) {
+            this.maximumSize = maximumSize;
+        }
+    }
+
+    /**
+     * Returns the number of {@link CircuitBreaker}s currently held.
+     * 
+     * @return a non-negative count
+     */
+    public int getSize() {
+        return breakers.size();
+    }
+
+    /**
+     * Returns the number of {@link CircuitBreaker}s currently open.
+     * 
+     * @return a non-negative count
+     */
+    public int getOpenCount() {
+        int result = 0;
+
+        for (Registration entry : breakers.values()) {
+            String state = entry.breaker.getCurrentState();
+
+            if (!CLOSED.equals(state) && !HALF_OPEN.equals(state)) {
+                ++result;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of {@link CircuitBreaker}s currently half-open.
+     * 
+     * @return a non-negative count
+     */
+    public int getHalfOpenCount() {
+        int result = 0;
+
+        for (Registration entry : breakers.values()) {
+            if (HALF_OPEN.equals(entry.breaker.getCurrentState())) {
+                ++result;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the total number of trips of all of the {@link CircuitBreaker}s created by this registry, including those
+     * since evicted.
+     * 
+     * @return a non-negative count
+     */
+    public long getTotalTripCount() {
+        long result = evictedTripCount.get();
+
+        for (Registration entry : breakers.values()) {
+            result += entry.breaker.getTripCount();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of {@link CircuitBreaker}s created.
+     * 
+     * @return a non-negative count
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the number of {@link CircuitBreaker}s evicted.
+     * 
+     * @return a non-negative count
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Creates and registers the {@link CircuitBreaker} for a {@link Key}, unless another thread got there first. If the
+     * registry is full and has not yet been swept in this period, the idle closed {@link CircuitBreaker}s are evicted
+     * first.
+     * 
+     * @param key
+     *            the non-null {@link Key}
+     * @return the non-null registered {@link Registration}
+     */
+    private Registration create(Key key) {
+        if (breakers.size() >= maximumSize) {
+            int current = this.period;
+            int swept = sweptPeriod.get();
+
+            if (swept != current && sweptPeriod.compareAndSet(swept, current)) {
+                evictClosedBefore(current);
+            }
+        }
+
+        Registration created = new Registration(template.createCircuitBreaker(), this.period);
+        Registration existing = breakers.putIfAbsent(key, created);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        createdCount.incrementAndGet();
+        return created;
+    }
+
+    /**
+     * Evicts the closed {@link CircuitBreaker}s last looked up before the specified period.
+     * 
+     * @param before
+     *            the period
+     * @return the number of {@link CircuitBreaker}s evicted
+     */
+    private int evictClosedBefore(int before) {
+        int result = 0;
+
+        for (Iterator<Map.Entry<Key, Registration>> i = breakers.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Key, Registration> mapping = i.next();
+            Registration entry = mapping.getValue();
+
+            if (entry.period - before < 0 && CLOSED.equals(entry.breaker.getCurrentState())
+                    && breakers.remove(mapping.getKey(), entry)) {
+                evictedTripCount.addAndGet(entry.breaker.getTripCount());
+                evictedCount.incrementAndGet();
+                ++result;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * A registered {@link CircuitBreaker} and the period in which it was last looked up.
+     */
+    private static final class Registration {
+
+        /**
+         * The non-null {@link CircuitBreaker}.
+         */
+        final CircuitBreaker breaker;
+
+        /**
+         * The period in which the {@link CircuitBreaker} was last looked up.
+         */
+        volatile int period;
+
+        /**
+         * Creates a new {@link Registration}.
+         * 
+         * @param breaker
+         *            the non-null {@link CircuitBreaker}
+         * @param period
+         *            the current period
+         */
+        Registration(CircuitBreaker breaker, int period) {
+            this.breaker = breaker;
+            this.period = period;
+        }
+    }
+
+}
@@ -26,25 +26,29 @@ interface CircuitBreakerState {
     /**
      * 
      * @param circuitBreaker
-     *            the non-null {@link CircuitBreaker} that this {@link CircuitBreakerState} refers to
+     *            the non-null {@link CircuitBreakerImpl} that this {@link CircuitBreakerState} refers to
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
      */
-    void after(CircuitBreaker circuitBreaker);
+    void after(CircuitBreakerImpl circuitBreaker, long durationInNanos);
 
     /**
      * 
      * @param circuitBreaker
-     *            the non-null {@link CircuitBreaker} that this {@link CircuitBreakerState} refers to
-     * @throws CircuitBreakerException
-     *             if there was a problem
+     *            the non-null {@link CircuitBreakerImpl} that this {@link CircuitBreakerState} refers to
+     * @return null if the call may go ahead, otherwise the preallocated {@link CircuitBreakerOpenException} saying why
+     *         not
      */
-    void before(CircuitBreaker circuitBreaker) throws CircuitBreakerException;
+    CircuitBreakerOpenException before(CircuitBreakerImpl circuitBreaker);
 
     /**
      * 
      * @param circuitBreaker
-     *            the non-null {@link CircuitBreaker} that this {@link CircuitBreakerState} refers to
+     *            the non-null {@link CircuitBreakerImpl} that this {@link CircuitBreakerState} refers to
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
      */
-    void handleFailure(CircuitBreaker circuitBreaker);
+    void handleFailure(CircuitBreakerImpl circuitBreaker, long durationInNanos);
 
     /**
      * Returns the time to next reset in milliseconds. A negative value means that the state is closed.
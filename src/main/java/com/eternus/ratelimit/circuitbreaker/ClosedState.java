@@ -15,8 +15,6 @@
  */
 package com.eternus.ratelimit.circuitbreaker;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 /**
  * {@link CircuitBreakerState} implementation for when a {@link CircuitBreaker} is closed and requests to integration
  * points are working normally.
@@ -27,40 +25,35 @@ import java.util.concurrent.atomic.AtomicInteger;
 class ClosedState implements CircuitBreakerState {
 
     /**
-     * The number of failures seen by this {@link CircuitBreaker}.
-     */
-    private final AtomicInteger failureCount;
-
-    /**
-     * The number of failures permitted for the {@link CircuitBreaker}, after which the {@link CircuitBreaker} will
-     * trip.
+     * The {@link TripPolicy} which decides when the {@link CircuitBreaker} will trip.
      */
-    private final int threshold;
+    private final TripPolicy policy;
 
     /**
      * Creates a new {@link ClosedState}.
      * 
-     * @param threshold
-     *            the positive threshold permitted number of failures after which any subsequent failures will cause the
-     *            {@link CircuitBreaker} to trip open
+     * @param policy
+     *            the non-null {@link TripPolicy} which decides from the outcomes of calls when the
+     *            {@link CircuitBreaker} will trip open
      */
-    ClosedState(int threshold) {
-        this.threshold = threshold;
-        this.failureCount = new AtomicInteger();
+    ClosedState(TripPolicy policy) {
+        this.policy = policy;
     }
 
     /**
      * {@inheritDoc}
      */
-    public void after(CircuitBreaker circuitBreakerImpl) {
-        this.failureCount.set(0);
+    public void after(CircuitBreakerImpl circuitBreakerImpl, long durationInNanos) {
+        if (this.policy.recordSuccess(durationInNanos)) {
+            circuitBreakerImpl.tripBreaker(this);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
-    public void before(CircuitBreaker circuitBreakerImpl) {
-        // no-op
+    public CircuitBreakerOpenException before(CircuitBreakerImpl circuitBreakerImpl) {
+        return null;
     }
 
     /**
@@ -73,11 +66,9 @@ class ClosedState implements CircuitBreakerState {
     /**
      * {@inheritDoc}
      */
-    public void handleFailure(CircuitBreaker circuitBreakerImpl) {
-        int count = this.failureCount.incrementAndGet();
-
-        if (count > threshold) {
-            circuitBreakerImpl.tripBreaker();
+    public void handleFailure(CircuitBreakerImpl circuitBreakerImpl, long durationInNanos) {
+        if (this.policy.recordFailure(durationInNanos)) {
+            circuitBreakerImpl.tripBreaker(this);
         }
     }
 
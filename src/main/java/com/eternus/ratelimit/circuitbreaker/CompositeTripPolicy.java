@@ -0,0 +1,71 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+/**
+ * {@link TripPolicy} which records every outcome with two other {@link TripPolicy}s, and trips if either of them does.
+ * 
+ * @author jabley
+ * 
+ */
+class CompositeTripPolicy implements TripPolicy {
+
+    /**
+     * The first non-null {@link TripPolicy}.
+     */
+    private final TripPolicy first;
+
+    /**
+     * The second non-null {@link TripPolicy}.
+     */
+    private final TripPolicy second;
+
+    /**
+     * Creates a new {@link CompositeTripPolicy}.
+     * 
+     * @param first
+     *            the first non-null {@link TripPolicy}
+     * @param second
+     *            the second non-null {@link TripPolicy}
+     */
+    CompositeTripPolicy(TripPolicy first, TripPolicy second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean recordSuccess(long durationInNanos) {
+        return first.recordSuccess(durationInNanos) | second.recordSuccess(durationInNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean recordFailure(long durationInNanos) {
+        return first.recordFailure(durationInNanos) | second.recordFailure(durationInNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        first.reset();
+        second.reset();
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link TripPolicy} which trips after more than {@code threshold} consecutive failures. Any success starts the count
+ * again.
+ * 
+ * @author jabley
+ * 
+ */
+class ConsecutiveFailuresPolicy implements TripPolicy {
+
+    /**
+     * The number of consecutive failures seen.
+     */
+    private final AtomicInteger failureCount;
+
+    /**
+     * The number of failures permitted, after which any subsequent failure will trip the {@link CircuitBreaker}.
+     */
+    private final int threshold;
+
+    /**
+     * Creates a new {@link ConsecutiveFailuresPolicy}.
+     * 
+     * @param threshold
+     *            the non-negative number of consecutive failures permitted
+     */
+    ConsecutiveFailuresPolicy(int threshold) {
+        this.threshold = threshold;
+        this.failureCount = new AtomicInteger();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean recordSuccess(long durationInNanos) {
+
+        /* Avoid writing to a shared cache line on every success when there is nothing to reset. */
+        if (this.failureCount.get() != 0) {
+            this.failureCount.set(0);
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean recordFailure(long durationInNanos) {
+        return this.failureCount.incrementAndGet() > threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        this.failureCount.set(0);
+    }
+
+}
@@ -15,6 +15,8 @@
  */
 package com.eternus.ratelimit.circuitbreaker;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * {@link CircuitBreakerState} implementation for when the {@link CircuitBreaker} is half-open and testing to see if the
  * guarded operation / integration point is usable yet.
@@ -24,18 +26,71 @@ package com.eternus.ratelimit.circuitbreaker;
  */
 class HalfOpenState implements CircuitBreakerState {
 
+    /**
+     * The number of trial calls permitted, or zero for no limit.
+     */
+    private final int permittedCalls;
+
+    /**
+     * The number of successful trial calls needed to close the {@link CircuitBreaker}.
+     */
+    private final int successQuorum;
+
+    /**
+     * The number of trial calls admitted so far.
+     */
+    private final AtomicInteger admitted;
+
+    /**
+     * The number of successful trial calls so far.
+     */
+    private final AtomicInteger successes;
+
+    /**
+     * Creates a new {@link HalfOpenState}.
+     * 
+     * @param permittedCalls
+     *            the non-negative number of trial calls permitted, or zero for no limit
+     * @param successQuorum
+     *            the positive number of successful trial calls needed to close the {@link CircuitBreaker}
+     */
+    HalfOpenState(int permittedCalls, int successQuorum) {
+        this.permittedCalls = permittedCalls;
+        this.successQuorum = successQuorum;
+        this.admitted = new AtomicInteger();
+        this.successes = new AtomicInteger();
+    }
+
     /**
      * {@inheritDoc}
      */
-    public void after(CircuitBreaker circuitBreakerImpl) {
-        circuitBreakerImpl.reset();
+    public void after(CircuitBreakerImpl circuitBreakerImpl, long durationInNanos) {
+
+        /* Only the trial which makes up the quorum resets the CircuitBreaker. */
+        if (this.successes.incrementAndGet() == successQuorum) {
+            circuitBreakerImpl.reset(this);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
-    public void before(CircuitBreaker circuitBreakerImpl) throws CircuitBreakerException {
-        // no-op
+    public CircuitBreakerOpenException before(CircuitBreakerImpl circuitBreakerImpl) {
+        if (permittedCalls == 0) {
+            return null;
+        }
+
+        for (;;) {
+            int current = this.admitted.get();
+
+            if (current >= permittedCalls) {
+                return CircuitBreakerOpenException.NO_TRIAL_CALLS;
+            }
+
+            if (this.admitted.compareAndSet(current, current + 1)) {
+                return null;
+            }
+        }
     }
 
     /**
@@ -48,8 +103,8 @@ class HalfOpenState implements CircuitBreakerState {
     /**
      * {@inheritDoc}
      */
-    public void handleFailure(CircuitBreaker circuitBreakerImpl) {
-        circuitBreakerImpl.tripBreaker();
+    public void handleFailure(CircuitBreakerImpl circuitBreakerImpl, long durationInNanos) {
+        circuitBreakerImpl.tripBreaker(this);
     }
 
     /**
@@ -47,22 +47,32 @@ class OpenState implements CircuitBreakerState {
     /**
      * {@inheritDoc}
      */
-    public void after(CircuitBreaker circuitBreakerImpl) {
+    public void after(CircuitBreakerImpl circuitBreakerImpl, long durationInNanos) {
         // no-op
     }
 
     /**
      * {@inheritDoc}
      */
-    public void before(CircuitBreaker circuitBreakerImpl) throws CircuitBreakerException {
+    public CircuitBreakerOpenException before(CircuitBreakerImpl circuitBreakerImpl) {
         long now = System.currentTimeMillis();
         long elapsed = now - this.tripTime;
 
-        if (elapsed > this.timeout) {
-            circuitBreakerImpl.attemptReset();
-        } else {
-            throw new CircuitBreakerOpenException("Open CircuitBreaker not yet ready for use.");
+        if (elapsed < this.timeout) {
+            return CircuitBreakerOpenException.OPEN;
+        }
+
+        /* Only one thread moves to half-open; the others use the state that it installed. */
+        circuitBreakerImpl.attemptReset(this);
+
+        CircuitBreakerState current = circuitBreakerImpl.getState();
+
+        if (current == this) {
+            return CircuitBreakerOpenException.OPEN;
         }
+
+        /* Take one of the half-open trial calls, if they are limited. */
+        return current.before(circuitBreakerImpl);
     }
 
     /**
@@ -85,7 +95,7 @@ class OpenState implements CircuitBreakerState {
     /**
      * {@inheritDoc}
      */
-    public void handleFailure(CircuitBreaker circuitBreakerImpl) {
+    public void handleFailure(CircuitBreakerImpl circuitBreakerImpl, long durationInNanos) {
         // no-op
     }
 
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * {@link TripPolicy} which trips when, over the last {@code windowSize} calls, either the failure rate or the rate of
+ * slow calls reaches its threshold, provided at least {@code minimumCalls} calls have been recorded. A call is slow if
+ * it took at least the slow call duration, whether it succeeded or not.
+ * </p>
+ * 
+ * <p>
+ * Outcomes are kept in a fixed-size ring buffer. Recording an outcome claims a slot with an atomic increment, swaps the
+ * new outcome into it and adjusts the running totals by the difference, so no locks are taken and nothing is
+ * allocated per call.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+class SlidingWindowPolicy implements TripPolicy {
+
+    /**
+     * Value of a slot with no recorded outcome.
+     */
+    private static final int EMPTY = 0;
+
+    /**
+     * Flag set in every slot holding an outcome.
+     */
+    private static final int RECORDED = 1;
+
+    /**
+     * Flag set in a slot holding a failed outcome.
+     */
+    private static final int FAILED = 2;
+
+    /**
+     * Flag set in a slot holding a slow outcome.
+     */
+    private static final int SLOW = 4;
+
+    /**
+     * The ring buffer of outcomes.
+     */
+    private final AtomicIntegerArray slots;
+
+    /**
+     * The total number of outcomes ever recorded, used to pick the next slot.
+     */
+    private final AtomicLong cursor;
+
+    /**
+     * The number of non-empty slots.
+     */
+    private final AtomicInteger calls;
+
+    /**
+     * The number of slots holding a failure.
+     */
+    private final AtomicInteger failures;
+
+    /**
+     * The number of slots holding a slow call.
+     */
+    private final AtomicInteger slowCalls;
+
+    /**
+     * The minimum number of calls in the window before the rates are considered.
+     */
+    private final int minimumCalls;
+
+    /**
+     * The failure rate, as a percentage, at or above which the {@link CircuitBreaker} trips. Zero disables it.
+     */
+    private final float failureRateThreshold;
+
+    /**
+     * The duration in nanoseconds at or above which a call is slow. Zero disables slow call detection.
+     */
+    private final long slowCallDuration;
+
+    /**
+     * The slow call rate, as a percentage, at or above which the {@link CircuitBreaker} trips.
+     */
+    private final float slowCallRateThreshold;
+
+    /**
+     * Creates a new {@link SlidingWindowPolicy} which only considers failures.
+     * 
+     * @param windowSize
+     *            the positive number of most recent calls considered
+     * @param minimumCalls
+     *            the positive minimum number of calls before the failure rate is considered
+     * @param failureRateThreshold
+     *            the failure rate percentage, between 0 and 100, at or above which the {@link CircuitBreaker} trips
+     */
+    SlidingWindowPolicy(int windowSize, int minimumCalls, float failureRateThreshold) {
+        this(windowSize, minimumCalls, failureRateThreshold, 0, 0);
+    }
+
+    /**
+     * Creates a new {@link SlidingWindowPolicy}.
+     * 
+     * @param windowSize
+     *            the positive number of most recent calls considered
+     * @param minimumCalls
+     *            the positive minimum number of calls before the rates are considered
+     * @param failureRateThreshold
+     *            the failure rate percentage, between 0 and 100, at or above which the {@link CircuitBreaker} trips, or
+     *            zero to ignore failures
+     * @param slowCallDuration
+     *            the duration in nanoseconds at or above which a call is slow, or zero to ignore durations
+     * @param slowCallRateThreshold
+     *            the slow call rate percentage, between 0 and 100, at or above which the {@link CircuitBreaker} trips
+     */
+    SlidingWindowPolicy(int windowSize, int minimumCalls, float failureRateThreshold, long slowCallDuration,
+            float slowCallRateThreshold) {
+        this.slots = new AtomicIntegerArray(windowSize);
+        this.cursor = new AtomicLong();
+        this.calls = new AtomicInteger();
+        this.failures = new AtomicInteger();
+        this.slowCalls = new AtomicInteger();
+        this.minimumCalls = Math.min(Math.max(minimumCalls, 1), windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallRateThreshold > 0 ? slowCallDuration : 0;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean recordSuccess(long durationInNanos) {
+        return record(RECORDED, durationInNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean recordFailure(long durationInNanos) {
+        return record(RECORDED | FAILED, durationInNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        for (int i = 0, n = slots.length(); i < n; ++i) {
+            adjust(slots.getAndSet(i, EMPTY), EMPTY);
+        }
+    }
+
+    /**
+     * Stores the outcome in the next slot, replacing the oldest outcome, and checks the rates.
+     * 
+     * @param outcome
+     *            the outcome flags
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
+     * @return true if the {@link CircuitBreaker} should trip
+     */
+    private boolean record(int outcome, long durationInNanos) {
+        if (slowCallDuration > 0 && durationInNanos >= slowCallDuration) {
+            outcome |= SLOW;
+        }
+
+        int index = (int) (cursor.getAndIncrement() % slots.length());
+        adjust(slots.getAndSet(index, outcome), outcome);
+
+        int total = calls.get();
+
+        if (total < minimumCalls) {
+            return false;
+        }
+
+        if (failureRateThreshold > 0 && failures.get() * 100.0f >= failureRateThreshold * total) {
+            return true;
+        }
+
+        return slowCallDuration > 0 && slowCalls.get() * 100.0f >= slowCallRateThreshold * total;
+    }
+
+    /**
+     * Adjusts the running totals for a slot which has changed.
+     * 
+     * @param old
+     *            the outcome flags which have been replaced
+     * @param outcome
+     *            the new outcome flags
+     */
+    private void adjust(int old, int outcome) {
+        int changed = old ^ outcome;
+
+        if ((changed & RECORDED) != 0) {
+            calls.addAndGet((outcome & RECORDED) != 0 ? 1 : -1);
+        }
+
+        if ((changed & FAILED) != 0) {
+            failures.addAndGet((outcome & FAILED) != 0 ? 1 : -1);
+        }
+
+        if ((changed & SLOW) != 0) {
+            slowCalls.addAndGet((outcome & SLOW) != 0 ? 1 : -1);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+/**
+ * Interface defining how a closed {@link CircuitBreaker} decides, from the outcomes of the guarded calls, that it
+ * should trip.
+ * 
+ * @author jabley
+ * 
+ */
+interface TripPolicy {
+
+    /**
+     * Records a successful call.
+     * 
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
+     * @return true if the {@link CircuitBreaker} should now trip, otherwise false
+     */
+    boolean recordSuccess(long durationInNanos);
+
+    /**
+     * Records a failed call.
+     * 
+     * @param durationInNanos
+     *            the duration of the call in nanoseconds, or a negative value if it is not known
+     * @return true if the {@link CircuitBreaker} should now trip, otherwise false
+     */
+    boolean recordFailure(long durationInNanos);
+
+    /**
+     * Forgets all of the outcomes recorded so far.
+     */
+    void reset();
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.decorators;
+
+/**
+ * Unchecked exception thrown by a decorated call which was not allowed to go ahead. Instances are preallocated and
+ * have no stack trace, so rejecting a call allocates nothing; use {@link #getReason()} to find out which guard
+ * rejected it.
+ * 
+ * @author jabley
+ * 
+ */
+public class CallNotPermittedException extends RuntimeException {
+
+    /**
+     * Required for serialization.
+     */
+    private static final long serialVersionUID = 4906393421917465871L;
+
+    /**
+     * The reasons why a call is not permitted.
+     */
+    public static enum Reason {
+
+        /**
+         * The {@code RateLimiter} returned an unusable {@code Token}.
+         */
+        RATE_LIMITED,
+
+        /**
+         * The {@code Bulkhead} had no concurrent calls available.
+         */
+        BULKHEAD_FULL,
+
+        /**
+         * The {@code CircuitBreaker} was open, or half-open with no trial calls available.
+         */
+        CIRCUIT_OPEN
+    }
+
+    /**
+     * Thrown when the {@code RateLimiter} rejects a call.
+     */
+    static final CallNotPermittedException RATE_LIMITED = new CallNotPermittedException(Reason.RATE_LIMITED,
+            "Call rejected by RateLimiter.");
+
+    /**
+     * Thrown when the {@code Bulkhead} rejects a call.
+     */
+    static final CallNotPermittedException BULKHEAD_FULL = new CallNotPermittedException(Reason.BULKHEAD_FULL,
+            "Call rejected by Bulkhead.");
+
+    /**
+     * Thrown when the {@code CircuitBreaker} rejects a call.
+     */
+    static final CallNotPermittedException CIRCUIT_OPEN = new CallNotPermittedException(Reason.CIRCUIT_OPEN,
+            "Call rejected by CircuitBreaker.");
+
+    /**
+     * The non-null reason why the call was not permitted.
+     */
+    private final Reason reason;
+
+    /**
+     * Constructs a new exception without a stack trace.
+     * 
+     * @param reason
+     *            the non-null {@link Reason}
+     * @param message
+     *            the detail message
+     */
+    private CallNotPermittedException(Reason reason, String message) {
+        super(message, null, false, false);
+        this.reason = reason;
+    }
+
+    /**
+     * Returns the reason why the call was not permitted.
+     * 
+     * @return a non-null {@link Reason}
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.decorators;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import com.eternus.ratelimit.Bulkhead;
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.Permit;
+import com.eternus.ratelimit.RateLimiter;
+import com.eternus.ratelimit.circuitbreaker.CircuitBreaker;
+
+/**
+ * <p>
+ * Immutable set of guards which can decorate a {@link Supplier}, {@link Callable}, {@link Runnable} or a
+ * {@link CompletionStage} supplier. Each guard is optional, and they are always applied in the same order:
+ * </p>
+ * 
+ * <ol>
+ * <li>the {@link RateLimiter}, which is cheapest and protects the others;</li>
+ * <li>the {@link Bulkhead}, whose permit is released when the call completes;</li>
+ * <li>the {@link CircuitBreaker}, closest to the call, so that it only sees calls which actually happen.</li>
+ * </ol>
+ * 
+ * <p>
+ * A rejected call throws one of the preallocated {@link CallNotPermittedException}s. A call which throws is reported
+ * to the {@link CircuitBreaker} with {@link CircuitBreaker#handleFailure()} and the exception is rethrown.
+ * </p>
+ * 
+ * <pre>
+ * Supplier&lt;Quote&gt; guarded = Decorators.none().withRateLimiter(rateLimiter, key).withBulkhead(bulkhead, key)
+ *         .withCircuitBreaker(circuitBreaker).decorateSupplier(quoteService);
+ * </pre>
+ * 
+ * <p>
+ * Decorate once and keep the result: the decorated {@link Supplier}, {@link Callable} and {@link Runnable} allocate
+ * nothing per call when the guards do not. A decorated {@link CompletionStage} allocates a completion callback per
+ * call, and reports the duration it measures to the {@link CircuitBreaker}, since the stage may complete on another
+ * thread.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public final class Decorators {
+
+    /**
+     * The {@link Decorators} with no guards.
+     */
+    private static final Decorators NONE = new Decorators(null, null, null, null, null);
+
+    /**
+     * The usable {@link Permit} used when there is no {@link Bulkhead}.
+     */
+    private static final Permit NO_BULKHEAD = new Permit() {
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isUsable() {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void release() {
+            // no-op
+        }
+    };
+
+    /**
+     * The {@link RateLimiter} - may be null.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The {@link Key} passed to the {@link RateLimiter}.
+     */
+    private final Key rateLimiterKey;
+
+    /**
+     * The {@link Bulkhead} - may be null.
+     */
+    private final Bulkhead bulkhead;
+
+    /**
+     * The {@link Key} passed to the {@link Bulkhead}.
+     */
+    private final Key bulkheadKey;
+
+    /**
+     * The {@link CircuitBreaker} - may be null.
+     */
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * Creates a new {@link Decorators}.
+     * 
+     * @param rateLimiter
+     *            the {@link RateLimiter} - may be null
+     * @param rateLimiterKey
+     *            the {@link Key} passed to the {@link RateLimiter}
+     * @param bulkhead
+     *            the {@link Bulkhead} - may be null
+     * @param bulkheadKey
+     *            the {@link Key} passed to the {@link Bulkhead}
+     * @param circuitBreaker
+     *            the {@link CircuitBreaker} - may be null
+     */
+    private Decorators(RateLimiter rateLimiter, Key rateLimiterKey, Bulkhead bulkhead, Key bulkheadKey,
+            CircuitBreaker circuitBreaker) {
+        this.rateLimiter = rateLimiter;
+        this.rateLimiterKey = rateLimiterKey;
+        this.bulkhead = bulkhead;
+        this.bulkheadKey = bulkheadKey;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the {@link Decorators} with no guards, to which guards can be added.
+     * 
+     * @return a non-null {@link Decorators}
+     */
+    public static Decorators none() {
+        return NONE;
+    }
+
+    /**
+     * Returns a copy of these {@link Decorators} which also asks the specified {@link RateLimiter} for a
+     * {@link com.eternus.ratelimit.Token} for the specified {@link Key}.
+     * 
+     * @param rateLimiter
+     *            the non-null {@link RateLimiter}
+     * @param key
+     *            the non-null {@link Key}
+     * @return a non-null {@link Decorators}
+     */
+    public Decorators withRateLimiter(RateLimiter rateLimiter, Key key) {
+        if (rateLimiter == null || key == null) {
+            throw new IllegalArgumentException("rateLimiter and key cannot be null");
+        }
+        return new Decorators(rateLimiter, key, bulkhead, bulkheadKey, circuitBreaker);
+    }
+
+    /**
+     * Returns a copy of these {@link Decorators} which also holds a {@link Permit} from the specified {@link Bulkhead}
+     * for the specified {@link Key} while the call is in flight.
+     * 
+     * @param bulkhead
+     *            the non-null {@link Bulkhead}
+     * @param key
+     *            the non-null {@link Key}
+     * @return a non-null {@link Decorators}
+     */
+    public Decorators withBulkhead(Bulkhead bulkhead, Key key) {
+        if (bulkhead == null || key == null) {
+            throw new IllegalArgumentException("bulkhead and key cannot be null");
+        }
+        return new Decorators(rateLimiter, rateLimiterKey, bulkhead, key, circuitBreaker);
+    }
+
+    /**
+     * Returns a copy of these {@link Decorators} which also guards the call with the specified {@link CircuitBreaker}.
+     * 
+     * @param circuitBreaker
+     *            the non-null {@link CircuitBreaker}
+     * @return a non-null {@link Decorators}
+     */
+    public Decorators withCircuitBreaker(CircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null) {
+            throw new IllegalArgumentException("circuitBreaker cannot be null");
+        }
+        return new Decorators(rateLimiter, rateLimiterKey, bulkhead, bulkheadKey, circuitBreaker);
+    }
+
+    /**
+     * Returns a {@link Supplier} which applies these guards around the specified {@link Supplier}.
+     * 
+     * @param <T>
+     *            the type of result
+     * @param supplier
+     *            the non-null {@link Supplier} to guard
+     * @return a non-null {@link Supplier}
+     */
+    public <T> Supplier<T> decorateSupplier(final Supplier<T> supplier) {
+        return new Supplier<T>() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public T get() {
+                Permit permit = acquire();
+                boolean success = false;
+
+                try {
+                    T result = supplier.get();
+                    success = true;
+                    return result;
+                } finally {
+                    completed(permit, success, -1);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link Callable} which applies these guards around the specified {@link Callable}.
+     * 
+     * @param <T>
+     *            the type of result
+     * @param callable
+     *            the non-null {@link Callable} to guard
+     * @return a non-null {@link Callable}
+     */
+    public <T> Callable<T> decorateCallable(final Callable<T> callable) {
+        return new Callable<T>() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public T call() throws Exception {
+                Permit permit = acquire();
+                boolean success = false;
+
+                try {
+                    T result = callable.call();
+                    success = true;
+                    return result;
+                } finally {
+                    completed(permit, success, -1);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link Runnable} which applies these guards around the specified {@link Runnable}.
+     * 
+     * @param runnable
+     *            the non-null {@link Runnable} to guard
+     * @return a non-null {@link Runnable}
+     */
+    public Runnable decorateRunnable(final Runnable runnable) {
+        return new Runnable() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void run() {
+                Permit permit = acquire();
+                boolean success = false;
+
+                try {
+                    runnable.run();
+                    success = true;
+                } finally {
+                    completed(permit, success, -1);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link Supplier} of {@link CompletionStage}s which applies these guards around the specified
+     * {@link Supplier}. The guards are released when the {@link CompletionStage} completes. A rejected call returns a
+     * {@link CompletionStage} completed exceptionally with a {@link CallNotPermittedException}. A null
+     * {@link CompletionStage} is treated as a failed call, and a {@link CompletionStage} completed exceptionally with a
+     * {@link NullPointerException} is returned in its place.
+     * 
+     * @param <T>
+     *            the type of result
+     * @param supplier
+     *            the non-null {@link Supplier} of the {@link CompletionStage} to guard
+     * @return a non-null {@link Supplier}
+     */
+    public <T> Supplier<CompletionStage<T>> decorateCompletionStage(
+            final Supplier<? extends CompletionStage<T>> supplier) {
+        return new Supplier<CompletionStage<T>>() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public CompletionStage<T> get() {
+                final Permit permit;
+
+                try {
+                    permit = acquire();
+                } catch (CallNotPermittedException e) {
+                    return failedStage(e);
+                }
+
+                final long start = System.nanoTime();
+                CompletionStage<T> stage;
+
+                try {
+                    stage = supplier.get();
+                } catch (RuntimeException e) {
+                    completed(permit, false, System.nanoTime() - start);
+                    return failedStage(e);
+                } catch (Error e) {
+                    completed(permit, false, System.nanoTime() - start);
+                    throw e;
+                }
+
+                if (stage == null) {
+                    completed(permit, false, System.nanoTime() - start);
+                    return failedStage(new NullPointerException("supplier returned a null CompletionStage"));
+                }
+
+                return stage.whenComplete(new BiConsumer<T, Throwable>() {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public void accept(T result, Throwable failure) {
+                        completed(permit, failure == null, System.nanoTime() - start);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Applies the guards before a call, in order.
+     * 
+     * @return the non-null {@link Permit} to release when the call completes
+     * @throws CallNotPermittedException
+     *             if one of the guards rejects the call
+     */
+    private Permit acquire() {
+        if (rateLimiter != null && !rateLimiter.getToken(rateLimiterKey).isUsable()) {
+            throw CallNotPermittedException.RATE_LIMITED;
+        }
+
+        Permit permit = NO_BULKHEAD;
+
+        if (bulkhead != null) {
+            permit = bulkhead.tryAcquire(bulkheadKey);
+
+            if (!permit.isUsable()) {
+                throw CallNotPermittedException.BULKHEAD_FULL;
+            }
+        }
+
+        if (circuitBreaker != null && !circuitBreaker.tryBefore()) {
+            permit.release();
+            throw CallNotPermittedException.CIRCUIT_OPEN;
+        }
+
+        return permit;
+    }
+
+    /**
+     * Releases the guards after a call. The {@link Permit} is released even if the {@link CircuitBreaker} throws.
+     * 
+     * @param permit
+     *            the non-null {@link Permit} returned by {@link #acquire()}
+     * @param success
+     *            true if the call succeeded, false if it failed
+     * @param durationInNanos
+     *            the measured duration of the call in nanoseconds, or a negative value to let the
+     *            {@link CircuitBreaker} use its own timing
+     */
+    private void completed(Permit permit, boolean success, long durationInNanos) {
+        try {
+            if (circuitBreaker == null) {
+                return;
+            }
+
+            if (success) {
+                if (durationInNanos < 0) {
+                    circuitBreaker.after();
+                } else {
+                    circuitBreaker.after(durationInNanos);
+                }
+            } else {
+                if (durationInNanos < 0) {
+                    circuitBreaker.handleFailure();
+                } else {
+                    circuitBreaker.handleFailure(durationInNanos);
+                }
+            }
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Returns a {@link CompletionStage} which has completed exceptionally.
+     * 
+     * @param <T>
+     *            the type of result
+     * @param failure
+     *            the non-null cause
+     * @return a non-null {@link CompletionStage}
+     */
+    private static <T> CompletionStage<T> failedStage(Throwable failure) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+}
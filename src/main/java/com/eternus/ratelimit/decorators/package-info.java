@@ -0,0 +1,21 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+/**
+ * Contains decorators which guard a Supplier, Callable, Runnable or CompletionStage with any combination of a
+ * RateLimiter, a Bulkhead and a CircuitBreaker, so that callers no longer hand-write the checks around each
+ * Integration Point.
+ */
+package com.eternus.ratelimit.decorators;
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Lock-free histogram of non-negative long values, such as latencies in nanoseconds, in the style of HdrHistogram.
+ * </p>
+ *
+ * <p>
+ * Values below 64 are counted exactly. Larger values are counted in log-linear buckets: each power of two is split
+ * into 32 equal sub-buckets, which bounds the relative error of a reported value to about 3%. Recording a value is a
+ * few shifts and one atomic increment, and never allocates.
+ * </p>
+ *
+ * @author jabley
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits used to index the sub-buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * The number of values that are counted exactly.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of sub-buckets in each power of two above {@link #SUB_BUCKET_COUNT}.
+     */
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * The total number of buckets needed to cover every non-negative long value.
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+    /**
+     * The count of values in each bucket.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * The total number of values recorded.
+     */
+    private final LongAdder totalCount;
+
+    /**
+     * The sum of the values recorded.
+     */
+    private final LongAdder totalSum;
+
+    /**
+     * The largest value recorded.
+     */
+    private final AtomicLong max;
+
+    /**
+     * Creates a new empty {@link LatencyHistogram}.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.totalCount = new LongAdder();
+        this.totalSum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values are counted as zero.
+     *
+     * @param value
+     *            the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts.incrementAndGet(indexFor(value));
+        totalCount.increment();
+        totalSum.add(value);
+
+        long current = max.get();
+
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return a non-negative count
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or zero if there are none.
+     *
+     * @return the mean value
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * Returns the largest value recorded, or zero if there are none.
+     *
+     * @return the maximum value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value at or below which the specified percentage of the recorded values fall. The value returned is
+     * the highest value that is equivalent to the containing bucket, but never more than {@link #getMax()}.
+     *
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the value at the percentile, or zero if there are no values
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += counts.get(i);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100.0 * total);
+        target = Math.max(target, 1);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += counts.get(i);
+
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Discards all of the recorded values. Values recorded concurrently with a reset may or may not be kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+
+        totalCount.reset();
+        totalSum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Returns the index of the bucket used to count the specified non-negative value.
+     *
+     * @param value
+     *            the non-negative value
+     * @return the bucket index
+     */
+    static int indexFor(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the highest value that would be counted in the specified bucket.
+     *
+     * @param index
+     *            the bucket index
+     * @return the highest equivalent value
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+        long top = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+
+        return ((top + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.jmx;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eternus.ratelimit.Bulkhead;
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.Permit;
+
+/**
+ * JMX MBean which exposes a decorated {@link Bulkhead}, so that its limit can be changed at runtime and the number of
+ * calls in flight, permitted and rejected can be monitored. Like {@link MeteredRateLimiter}, no locks are taken and
+ * nothing is allocated per call.
+ * 
+ * @author jabley
+ * 
+ */
+public class ManagedBulkhead implements ManagedBulkheadMBean {
+
+    /**
+     * The non-null delegate.
+     */
+    private final Bulkhead delegate;
+
+    /**
+     * The number of permitted calls.
+     */
+    private final LongAdder permitted;
+
+    /**
+     * The number of rejected calls.
+     */
+    private final LongAdder rejected;
+
+    /**
+     * Creates a new {@link ManagedBulkhead} which will delegate the implementation to the specified non-null
+     * {@link Bulkhead}.
+     * 
+     * @param delegate
+     *            a non-null {@link Bulkhead} which this MBean will manage
+     */
+    public ManagedBulkhead(Bulkhead delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+        this.permitted = new LongAdder();
+        this.rejected = new LongAdder();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Permit tryAcquire(Key key) {
+        return count(delegate.tryAcquire(key));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Permit tryAcquire(Key key, long timeout, TimeUnit unit) throws InterruptedException {
+        return count(delegate.tryAcquire(key, timeout, unit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getConcurrentCalls(Key key) {
+        return delegate.getConcurrentCalls(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConcurrentCalls() {
+        return delegate.getConcurrentCalls();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxConcurrentCalls() {
+        return delegate.getMaxConcurrentCalls();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        delegate.setMaxConcurrentCalls(maxConcurrentCalls);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPermittedCount() {
+        return permitted.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resetStatistics() {
+        permitted.reset();
+        rejected.reset();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return this.delegate.isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEnabled(boolean enabled) {
+        this.delegate.setEnabled(enabled);
+    }
+
+    /**
+     * Counts the outcome of an attempt to acquire a {@link Permit}.
+     * 
+     * @param permit
+     *            the non-null {@link Permit} returned by the delegate
+     * @return the same {@link Permit}
+     */
+    private Permit count(Permit permit) {
+        if (permit.isUsable()) {
+            permitted.increment();
+        } else {
+            rejected.increment();
+        }
+
+        return permit;
+    }
+
+}
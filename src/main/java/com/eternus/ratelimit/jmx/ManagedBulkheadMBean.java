@@ -0,0 +1,47 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.jmx;
+
+import com.eternus.ratelimit.Bulkhead;
+
+/**
+ * MBean interface for managing {@link Bulkhead}s.
+ * 
+ * @author jabley
+ * 
+ */
+public interface ManagedBulkheadMBean extends Bulkhead {
+
+    /**
+     * Returns the number of calls which were given a usable permit.
+     * 
+     * @return a non-negative count
+     */
+    long getPermittedCount();
+
+    /**
+     * Returns the number of calls which were refused a permit because too many calls were in flight.
+     * 
+     * @return a non-negative count
+     */
+    long getRejectedCount();
+
+    /**
+     * Discards the counters collected so far.
+     */
+    void resetStatistics();
+
+}
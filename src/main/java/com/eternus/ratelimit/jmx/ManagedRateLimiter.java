@@ -15,17 +15,41 @@
  */
 package com.eternus.ratelimit.jmx;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.management.MBeanNotificationInfo;
 import javax.management.Notification;
 import javax.management.NotificationBroadcasterSupport;
 import javax.management.monitor.MonitorNotification;
 
 import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.LongKey;
 import com.eternus.ratelimit.RateLimiter;
 import com.eternus.ratelimit.Token;
+import com.eternus.ratelimit.TokenStatus;
 
 /**
+ * <p>
  * JMX MBean which will send out notifications around a decorated {@link RateLimiter} implementation.
+ * </p>
+ * 
+ * <p>
+ * By default a notification is sent on the request thread for every request. In asynchronous mode, request threads
+ * only bump per-key counters; a background thread sends one aggregate notification per key per flush interval, so
+ * request threads never wait on a slow listener. Allowed requests are sampled in asynchronous mode, so their counts are
+ * estimates.
+ * </p>
  * 
  * @author jabley
  * 
@@ -45,7 +69,28 @@ public class ManagedRateLimiter extends NotificationBroadcasterSupport implement
     /**
      * The JMX notification sequence number.
      */
-    private long sequenceNumber;
+    private final AtomicLong sequenceNumber;
+
+    /**
+     * The time in milliseconds between aggregate notifications in asynchronous mode.
+     */
+    private volatile long flushInterval = 1000;
+
+    /**
+     * The number of allowed requests represented by each sample in asynchronous mode - a power of two.
+     */
+    private volatile int allowedSampleRate = 16;
+
+    /**
+     * The {@link Aggregator} used in asynchronous mode, or null in synchronous mode. Guarded by this for writes.
+     */
+    private volatile Aggregator aggregator;
+
+    /**
+     * The single background thread used to send aggregate notifications, created the first time asynchronous mode is
+     * turned on and kept for the life of this MBean. Guarded by this.
+     */
+    private ScheduledExecutorService executor;
 
     /**
      * Creates a new {@link ManagedRateLimiter} which will delegate the implementation to the specified non-null
@@ -59,6 +104,7 @@ public class ManagedRateLimiter extends NotificationBroadcasterSupport implement
             throw new IllegalArgumentException("delegate cannot be null");
         }
         this.delegate = delegate;
+        this.sequenceNumber = new AtomicLong();
     }
 
     /**
@@ -78,16 +124,57 @@ public class ManagedRateLimiter extends NotificationBroadcasterSupport implement
      */
     public Token getToken(Key key) {
         Token token = delegate.getToken(key);
+        notify(key, token.isUsable());
+        return token;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(long key) {
+        Token token = delegate.getToken(key);
+        notify(LongKey.valueOf(key), token.isUsable());
+        return token;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(Key key) {
+        long status = delegate.getTokenStatus(key);
+        notify(key, TokenStatus.isUsable(status));
+        return status;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(long key) {
+        long status = delegate.getTokenStatus(key);
+        notify(LongKey.valueOf(key), TokenStatus.isUsable(status));
+        return status;
+    }
 
-        if (token.isUsable()) {
+    /**
+     * Sends, or aggregates, a notification of the outcome of a request.
+     * 
+     * @param key
+     *            the non-null {@link Key} of the request
+     * @param usable
+     *            true if the request was allowed
+     */
+    private void notify(Key key, boolean usable) {
+        Aggregator current = this.aggregator;
+
+        if (current != null) {
+            current.record(key, usable);
+        } else if (usable) {
             sendNotification(new Notification(JMX_MONITOR_RATE_LIMIT_SERVICE_TYPE, this, getSequenceNumber(),
                     "allowed request " + key));
         } else {
             sendNotification(new Notification(MonitorNotification.THRESHOLD_VALUE_EXCEEDED, this, getSequenceNumber(),
                     "denied request " + key));
         }
-
-        return token;
     }
 
     /**
@@ -132,13 +219,325 @@ public class ManagedRateLimiter extends NotificationBroadcasterSupport implement
         delegate.setDuration(durationInSeconds);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isAsynchronous() {
+        return this.aggregator != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setAsynchronous(boolean asynchronous) {
+        Aggregator current = this.aggregator;
+
+        if (asynchronous && current == null) {
+            if (this.executor == null) {
+                this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "rate-limit-notifications");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            this.aggregator = new Aggregator(this.executor, this.flushInterval, this.allowedSampleRate);
+        } else if (!asynchronous && current != null) {
+            this.aggregator = null;
+            current.shutdown();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFlushIntervalInMillis() {
+        return this.flushInterval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setFlushIntervalInMillis(long flushInterval) {
+        if (flushInterval > 0) {
+            this.flushInterval = flushInterval;
+            restartAggregator();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getAllowedSampleRate() {
+        return this.allowedSampleRate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setAllowedSampleRate(int allowedSampleRate) {
+        if (allowedSampleRate > 0) {
+            this.allowedSampleRate = Integer.highestOneBit(allowedSampleRate) == allowedSampleRate ? allowedSampleRate
+                    : Integer.highestOneBit(allowedSampleRate) << 1;
+            restartAggregator();
+        }
+    }
+
+    /**
+     * Replaces any running {@link Aggregator} with one using the current settings. Must be called holding the lock on
+     * this.
+     */
+    private void restartAggregator() {
+        if (this.aggregator != null) {
+            setAsynchronous(false);
+            setAsynchronous(true);
+        }
+    }
+
     /**
      * Returns the next sequence number for the JMX notification.
      * 
      * @return the next positive sequence number
      */
-    private synchronized long getSequenceNumber() {
-        return ++this.sequenceNumber;
+    private long getSequenceNumber() {
+        return this.sequenceNumber.incrementAndGet();
+    }
+
+    /**
+     * Per-key counters for the current flush interval, packed into one word so that they can be drained and retired
+     * atomically. Bits 32 to 62 count allowed samples and the low 31 bits denied requests; a negative value means
+     * that the counters have been removed from the map and must not be used. A counter which reaches half of its range
+     * asks for an early flush, long before it could carry into the other one.
+     */
+    private static final class Counts extends AtomicLong {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The value of retired counters.
+         */
+        static final long RETIRED = Long.MIN_VALUE;
+
+        /**
+         * The increment for one allowed sample.
+         */
+        static final long ALLOWED = 1L << 32;
+
+        /**
+         * The increment for one denied request.
+         */
+        static final long DENIED = 1L;
+
+        /**
+         * The mask of either counter once shifted down.
+         */
+        private static final long COUNTER_MASK = Integer.MAX_VALUE;
+
+        /**
+         * The value of either counter at which the counters ask to be flushed early.
+         */
+        private static final long FLUSH_AT = 1L << 30;
+
+        /**
+         * Adds to the counters unless they have been retired.
+         * 
+         * @param delta
+         *            {@link #ALLOWED} or {@link #DENIED}
+         * @return the new value of the counters, or a negative value if they have been retired
+         */
+        long add(long delta) {
+            for (;;) {
+                long current = get();
+
+                if (current < 0) {
+                    return current;
+                }
+
+                if (compareAndSet(current, current + delta)) {
+                    return current + delta;
+                }
+            }
+        }
+
+        /**
+         * Returns true if adding the delta took its counter to half of its range, which only one add can do until
+         * the counters are drained.
+         * 
+         * @param counted
+         *            the non-negative value returned by {@link #add(long)}
+         * @param delta
+         *            the delta which was added
+         * @return true if the counters should be flushed early, otherwise false
+         */
+        static boolean reachedFlush(long counted, long delta) {
+            return ((counted / delta) & COUNTER_MASK) == FLUSH_AT;
+        }
+    }
+
+    /**
+     * Coalesces requests per key and sends aggregate notifications from a background thread.
+     */
+    private final class Aggregator implements Runnable {
+
+        /**
+         * The per-key counters. Counters idle for a whole interval are retired and removed at the next flush.
+         */
+        private final ConcurrentMap<Key, Counts> counts;
+
+        /**
+         * The non-null background thread used to send notifications.
+         */
+        private final ScheduledExecutorService executor;
+
+        /**
+         * The scheduled flushes of this {@link Aggregator}.
+         */
+        private final ScheduledFuture<?> flushes;
+
+        /**
+         * The number of allowed requests represented by each sample.
+         */
+        private final int sampleRate;
+
+        /**
+         * Creates and starts a new {@link Aggregator}.
+         * 
+         * @param executor
+         *            the non-null background thread used to send notifications
+         * @param flushInterval
+         *            the positive time in milliseconds between notifications
+         * @param sampleRate
+         *            the positive number of allowed requests represented by each sample - a power of two
+         */
+        Aggregator(ScheduledExecutorService executor, long flushInterval, int sampleRate) {
+            this.counts = new ConcurrentHashMap<Key, Counts>();
+            this.sampleRate = sampleRate;
+            this.executor = executor;
+            this.flushes = executor.scheduleWithFixedDelay(this, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Counts a request. Only the first request for a key in each interval allocates.
+         * 
+         * @param key
+         *            the non-null {@link Key}
+         * @param usable
+         *            true if the request was allowed
+         */
+        void record(Key key, boolean usable) {
+            if (usable && (ThreadLocalRandom.current().nextInt() & (sampleRate - 1)) != 0) {
+                return;
+            }
+
+            long delta = usable ? Counts.ALLOWED : Counts.DENIED;
+
+            for (;;) {
+                Counts current = counts.get(key);
+
+                if (current == null) {
+                    Counts created = new Counts();
+                    current = counts.putIfAbsent(key, created);
+
+                    if (current == null) {
+                        current = created;
+                    }
+                }
+
+                long counted = current.add(delta);
+
+                if (counted >= 0) {
+                    if (Counts.reachedFlush(counted, delta)) {
+                        flushEarly();
+                    }
+
+                    return;
+                }
+
+                /* Retired by a flush just now; make sure it is gone and count into a fresh one. */
+                counts.remove(key, current);
+            }
+        }
+
+        /**
+         * Drains the counters on the background thread ahead of the next scheduled flush.
+         */
+        private void flushEarly() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+
+                /* Shutting down, which flushes anyway. */
+            }
+        }
+
+        /**
+         * Sends the aggregate notifications for the interval just finished.
+         */
+        public void run() {
+            for (Map.Entry<Key, Counts> entry : counts.entrySet()) {
+                Key key = entry.getKey();
+                Counts current = entry.getValue();
+                long drained = current.getAndSet(0);
+
+                if (drained == 0) {
+
+                    /* Idle for a whole interval. Retiring fails if a request has just been counted. */
+                    if (current.compareAndSet(0, Counts.RETIRED)) {
+                        counts.remove(key, current);
+                    }
+
+                    continue;
+                }
+
+                long allowed = (drained >>> 32) * sampleRate;
+                long denied = drained & Integer.MAX_VALUE;
+
+                try {
+                    if (denied > 0) {
+                        Notification notification = new Notification(MonitorNotification.THRESHOLD_VALUE_EXCEEDED,
+                                ManagedRateLimiter.this, getSequenceNumber(), "denied " + denied + " requests " + key);
+                        notification.setUserData(Long.valueOf(denied));
+                        sendNotification(notification);
+                    }
+
+                    if (allowed > 0) {
+                        Notification notification = new Notification(JMX_MONITOR_RATE_LIMIT_SERVICE_TYPE,
+                                ManagedRateLimiter.this, getSequenceNumber(), "allowed ~" + allowed + " requests "
+                                        + key);
+                        notification.setUserData(Long.valueOf(allowed));
+                        sendNotification(notification);
+                    }
+                } catch (RuntimeException e) {
+
+                    /* ignore and carry on processing the others */
+                }
+            }
+        }
+
+        /**
+         * Stops the scheduled flushes and waits for the background thread to send any outstanding notifications.
+         */
+        void shutdown() {
+            flushes.cancel(false);
+
+            try {
+                executor.submit(this).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+
+                /* run() catches what the listeners throw. */
+            }
+        }
     }
 
 }
@@ -24,5 +24,52 @@ import com.eternus.ratelimit.RateLimiter;
  *
  */
 public interface ManagedRateLimiterMBean extends RateLimiter {
-        
+
+    /**
+     * Returns true if notifications are aggregated and sent from a background thread, otherwise false.
+     * 
+     * @return true if in asynchronous mode
+     */
+    boolean isAsynchronous();
+
+    /**
+     * Switches between sending a notification on the request thread for every request, and aggregating requests per
+     * key and sending notifications from a background thread.
+     * 
+     * @param asynchronous
+     *            true to aggregate and send notifications in the background
+     */
+    void setAsynchronous(boolean asynchronous);
+
+    /**
+     * Returns the time in milliseconds between aggregate notifications in asynchronous mode.
+     * 
+     * @return the positive flush interval
+     */
+    long getFlushIntervalInMillis();
+
+    /**
+     * Sets the time in milliseconds between aggregate notifications in asynchronous mode.
+     * 
+     * @param flushInterval
+     *            the positive flush interval
+     */
+    void setFlushIntervalInMillis(long flushInterval);
+
+    /**
+     * Returns the number of allowed requests represented by each sample in asynchronous mode.
+     * 
+     * @return a positive power of two
+     */
+    int getAllowedSampleRate();
+
+    /**
+     * Sets the number of allowed requests represented by each sample in asynchronous mode. Values are rounded up to a
+     * power of two. Denied requests are always counted.
+     * 
+     * @param allowedSampleRate
+     *            the positive sample rate
+     */
+    void setAllowedSampleRate(int allowedSampleRate);
+
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.jmx;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.RateLimiter;
+import com.eternus.ratelimit.Token;
+import com.eternus.ratelimit.TokenStatus;
+
+/**
+ * JMX MBean which counts the allowed and denied requests of a decorated {@link RateLimiter} and records how long each
+ * {@link #getToken(Key)} call takes. Unlike {@link ManagedRateLimiter}, no notifications are sent, no locks are taken
+ * and nothing is allocated per request.
+ *
+ * @author jabley
+ *
+ */
+public class MeteredRateLimiter implements MeteredRateLimiterMBean {
+
+    /**
+     * The non-null delegate.
+     */
+    private final RateLimiter delegate;
+
+    /**
+     * The number of allowed requests.
+     */
+    private final LongAdder allowed;
+
+    /**
+     * The number of denied requests.
+     */
+    private final LongAdder denied;
+
+    /**
+     * The time taken by the delegate for each request, in nanoseconds.
+     */
+    private final LatencyHistogram latencies;
+
+    /**
+     * Creates a new {@link MeteredRateLimiter} which will delegate the implementation to the specified non-null
+     * {@link RateLimiter}.
+     *
+     * @param delegate
+     *            a non-null {@link RateLimiter} around which this MBean will collect statistics
+     */
+    public MeteredRateLimiter(RateLimiter delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+        this.allowed = new LongAdder();
+        this.denied = new LongAdder();
+        this.latencies = new LatencyHistogram();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(Key key) {
+        long start = System.nanoTime();
+        Token token = delegate.getToken(key);
+        latencies.record(System.nanoTime() - start);
+
+        if (token.isUsable()) {
+            allowed.increment();
+        } else {
+            denied.increment();
+        }
+
+        return token;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Token getToken(long key) {
+        long start = System.nanoTime();
+        Token token = delegate.getToken(key);
+        latencies.record(System.nanoTime() - start);
+
+        if (token.isUsable()) {
+            allowed.increment();
+        } else {
+            denied.increment();
+        }
+
+        return token;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(Key key) {
+        long start = System.nanoTime();
+        long status = delegate.getTokenStatus(key);
+        latencies.record(System.nanoTime() - start);
+
+        if (TokenStatus.isUsable(status)) {
+            allowed.increment();
+        } else {
+            denied.increment();
+        }
+
+        return status;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTokenStatus(long key) {
+        long start = System.nanoTime();
+        long status = delegate.getTokenStatus(key);
+        latencies.record(System.nanoTime() - start);
+
+        if (TokenStatus.isUsable(status)) {
+            allowed.increment();
+        } else {
+            denied.increment();
+        }
+
+        return status;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAllowedCount() {
+        return allowed.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDeniedCount() {
+        return denied.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanLatencyInNanos() {
+        return latencies.getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMedianLatencyInNanos() {
+        return latencies.getValueAtPercentile(50);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long get99thPercentileLatencyInNanos() {
+        return latencies.getValueAtPercentile(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long get999thPercentileLatencyInNanos() {
+        return latencies.getValueAtPercentile(99.9);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxLatencyInNanos() {
+        return latencies.getMax();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resetStatistics() {
+        allowed.reset();
+        denied.reset();
+        latencies.reset();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return this.delegate.isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEnabled(boolean enabled) {
+        this.delegate.setEnabled(enabled);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getAllowedRequests() {
+        return delegate.getAllowedRequests();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAllowedRequests(int allowedRequests) {
+        delegate.setAllowedRequests(allowedRequests);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setDuration(int durationInSeconds) {
+        delegate.setDuration(durationInSeconds);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.jmx;
+
+import com.eternus.ratelimit.RateLimiter;
+
+/**
+ * MBean interface for {@link RateLimiter}s which keep counters and a latency histogram of their requests.
+ *
+ * @author jabley
+ *
+ */
+public interface MeteredRateLimiterMBean extends RateLimiter {
+
+    /**
+     * Returns the number of requests which were allowed.
+     *
+     * @return a non-negative count
+     */
+    long getAllowedCount();
+
+    /**
+     * Returns the number of requests which were denied.
+     *
+     * @return a non-negative count
+     */
+    long getDeniedCount();
+
+    /**
+     * Returns the mean time taken to decide whether to allow a request, in nanoseconds.
+     *
+     * @return the mean latency
+     */
+    double getMeanLatencyInNanos();
+
+    /**
+     * Returns the median time taken to decide whether to allow a request, in nanoseconds.
+     *
+     * @return the 50th percentile latency
+     */
+    long getMedianLatencyInNanos();
+
+    /**
+     * Returns the 99th percentile time taken to decide whether to allow a request, in nanoseconds.
+     *
+     * @return the 99th percentile latency
+     */
+    long get99thPercentileLatencyInNanos();
+
+    /**
+     * Returns the 99.9th percentile time taken to decide whether to allow a request, in nanoseconds.
+     *
+     * @return the 99.9th percentile latency
+     */
+    long get999thPercentileLatencyInNanos();
+
+    /**
+     * Returns the longest time taken to decide whether to allow a request, in nanoseconds.
+     *
+     * @return the maximum latency
+     */
+    long getMaxLatencyInNanos();
+
+    /**
+     * Discards the counters and latencies collected so far.
+     */
+    void resetStatistics();
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.simulation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The admitted and denied counts from a {@link TraceReplay}, per key and overall.
+ * 
+ * @author jabley
+ * 
+ */
+public class ReplayReport {
+
+    /**
+     * The counts per key, as admitted then denied.
+     */
+    private final Map<String, long[]> counts;
+
+    /**
+     * The total number of admitted requests.
+     */
+    private long admitted;
+
+    /**
+     * The total number of denied requests.
+     */
+    private long denied;
+
+    /**
+     * Creates a new empty {@link ReplayReport}.
+     */
+    ReplayReport() {
+        this.counts = new HashMap<String, long[]>();
+    }
+
+    /**
+     * Counts a replayed request.
+     * 
+     * @param key
+     *            the non-null key
+     * @param usable
+     *            true if the request was admitted, otherwise false
+     */
+    void record(String key, boolean usable) {
+        long[] count = counts.get(key);
+
+        if (count == null) {
+            count = new long[2];
+            counts.put(key, count);
+        }
+
+        if (usable) {
+            ++count[0];
+            ++admitted;
+        } else {
+            ++count[1];
+            ++denied;
+        }
+    }
+
+    /**
+     * Returns the keys seen in the trace.
+     * 
+     * @return a non-null unmodifiable Set of keys
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    /**
+     * Returns the number of requests admitted for the key.
+     * 
+     * @param key
+     *            the key
+     * @return a non-negative count
+     */
+    public long getAdmitted(String key) {
+        long[] count = counts.get(key);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Returns the number of requests denied for the key.
+     * 
+     * @param key
+     *            the key
+     * @return a non-negative count
+     */
+    public long getDenied(String key) {
+        long[] count = counts.get(key);
+        return count == null ? 0 : count[1];
+    }
+
+    /**
+     * Returns the total number of requests admitted.
+     * 
+     * @return a non-negative count
+     */
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * Returns the total number of requests denied.
+     * 
+     * @return a non-negative count
+     */
+    public long getDenied() {
+        return denied;
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.simulation;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.eternus.ratelimit.FixedBucket;
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.MemoryTokenStore;
+import com.eternus.ratelimit.RateLimiter;
+import com.eternus.ratelimit.VirtualClock;
+
+/**
+ * <p>
+ * Replays a recorded request trace through a {@link RateLimiter}, moving a {@link VirtualClock} on to the time of each
+ * request rather than waiting, so that a day of traffic takes seconds. The {@link RateLimiter} and its
+ * {@link com.eternus.ratelimit.TokenStore} must be set up to use the same {@link VirtualClock}, as
+ * {@link #main(String[])} does for a {@link FixedBucket}, and the store must not drop entries on wall-clock time or
+ * memory pressure; a {@link MemoryTokenStore} given the {@link VirtualClock} only drops entries expired by it.
+ * </p>
+ * 
+ * <p>
+ * A trace has one request per line, as the time from the epoch in milliseconds and the key separated by a comma.
+ * Blank lines and lines starting with {@code #} are ignored. Requests should be in time order; the clock never moves
+ * back.
+ * </p>
+ * 
+ * @author jabley
+ * 
+ */
+public class TraceReplay {
+
+    /**
+     * The non-null {@link RateLimiter} under test.
+     */
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The non-null {@link VirtualClock} used by the {@link RateLimiter}.
+     */
+    private final VirtualClock clock;
+
+    /**
+     * Creates a new {@link TraceReplay}.
+     * 
+     * @param rateLimiter
+     *            the non-null {@link RateLimiter} under test
+     * @param clock
+     *            the non-null {@link VirtualClock} which the {@link RateLimiter} and its store use
+     */
+    public TraceReplay(RateLimiter rateLimiter, VirtualClock clock) {
+        if (rateLimiter == null || clock == null) {
+            throw new IllegalArgumentException("rateLimiter and clock cannot be null");
+        }
+
+        this.rateLimiter = rateLimiter;
+        this.clock = clock;
+    }
+
+    /**
+     * Replays every request in the trace.
+     * 
+     * @param trace
+     *            the non-null trace, which is read to the end but not closed
+     * @return a non-null {@link ReplayReport}
+     * @throws IOException
+     *             if the trace cannot be read or a line is malformed
+     */
+    public ReplayReport replay(Reader trace) throws IOException {
+        BufferedReader in = new BufferedReader(trace);
+        ReplayReport result = new ReplayReport();
+        int lineNumber = 0;
+
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            ++lineNumber;
+            line = line.trim();
+
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+
+            int comma = line.indexOf(',');
+
+            if (comma < 0) {
+                throw new IOException("Line " + lineNumber + " has no key: " + line);
+            }
+
+            long timestamp;
+
+            try {
+                timestamp = Long.parseLong(line.substring(0, comma).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + " has a bad timestamp: " + line);
+            }
+
+            String key = line.substring(comma + 1).trim();
+            clock.advanceTo(timestamp);
+            result.record(key, rateLimiter.getToken(new TraceKey(key)).isUsable());
+        }
+
+        return result;
+    }
+
+    /**
+     * Replays a trace file through a {@link FixedBucket} with the specified settings and prints the admitted and
+     * denied counts per key, as comma-separated values, followed by the totals.
+     * 
+     * @param args
+     *            the path of the trace, the allowed requests and the duration in seconds
+     * @throws IOException
+     *             if the trace cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: TraceReplay <trace> <allowedRequests> <durationInSeconds>");
+            System.exit(1);
+        }
+
+        VirtualClock clock = new VirtualClock();
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(Integer.parseInt(args[1]));
+        rateLimiter.setDuration(Integer.parseInt(args[2]));
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new MemoryTokenStore(clock));
+        rateLimiter.init();
+
+        ReplayReport report;
+        Reader trace = new FileReader(args[0]);
+
+        try {
+            long start = System.nanoTime();
+            report = new TraceReplay(rateLimiter, clock).replay(trace);
+            System.err.println("Replayed in " + (System.nanoTime() - start) / 1000000 + "ms");
+        } finally {
+            trace.close();
+        }
+
+        List<String> keys = new ArrayList<String>(report.getKeys());
+        Collections.sort(keys);
+
+        PrintStream out = System.out;
+        out.println("key,admitted,denied");
+
+        for (String key : keys) {
+            out.println(key + "," + report.getAdmitted(key) + "," + report.getDenied(key));
+        }
+
+        out.println("TOTAL," + report.getAdmitted() + "," + report.getDenied());
+    }
+
+    /**
+     * {@link Key} for a key read from a trace.
+     */
+    private static final class TraceKey implements Key {
+
+        /**
+         * The non-null key from the trace.
+         */
+        private final String value;
+
+        /**
+         * Creates a new {@link TraceKey}.
+         * 
+         * @param value
+         *            the non-null key from the trace
+         */
+        TraceKey(String value) {
+            this.value = value;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof TraceKey && ((TraceKey) obj).value.equals(value);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+}
@@ -150,6 +150,83 @@ public abstract class FixedBucketTests {
         assertTrue("We have a usable token back for the second request", token.isUsable());
     }
 
+    @Test
+    public void primitiveKeysShareEntriesWithLongKeys() {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setTokenStore(createTokenStore());
+        rateLimiter.init();
+
+        long key = System.nanoTime();
+
+        assertTrue(rateLimiter.getToken(key).isUsable());
+        assertTrue(rateLimiter.getToken(LongKey.valueOf(key)).isUsable());
+        assertFalse("both calls used the same entry", rateLimiter.getToken(key).isUsable());
+        assertTrue("other keys are independent", rateLimiter.getToken(key + 1).isUsable());
+    }
+
+    @Test
+    public void lowerPrioritiesAreShedFirst() {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(10);
+        rateLimiter.setReservedFraction(0.3f);
+        rateLimiter.setTokenStore(createTokenStore());
+        rateLimiter.init();
+
+        RateLimiterKey key = new RateLimiterKey();
+
+        for (int i = 0; i < 7; ++i) {
+            assertTrue(rateLimiter.getToken(key, Priority.LOW).isUsable());
+        }
+
+        assertFalse("30% is reserved for higher classes", rateLimiter.getToken(key, Priority.LOW).isUsable());
+        assertTrue("denied requests did not use up capacity", rateLimiter.getToken(key, Priority.NORMAL).isUsable());
+        assertFalse(rateLimiter.getToken(key, Priority.NORMAL).isUsable());
+        assertTrue(rateLimiter.getToken(key, Priority.HIGH).isUsable());
+        assertFalse(rateLimiter.getToken(key, Priority.HIGH).isUsable());
+        assertTrue(rateLimiter.getToken(key).isUsable());
+        assertFalse(rateLimiter.getToken(key).isUsable());
+    }
+
+    @Test
+    public void statusReportsRemainingRequestsAndReset() {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setDuration(10);
+        rateLimiter.setTokenStore(createTokenStore());
+        rateLimiter.init();
+
+        RateLimiterKey key = new RateLimiterKey();
+
+        long status = rateLimiter.getTokenStatus(key, Priority.CRITICAL);
+        assertTrue(TokenStatus.isUsable(status));
+        assertEquals(1, TokenStatus.getRemaining(status));
+        assertEquals(0, TokenStatus.getRetryAfterInMillis(status));
+
+        long reset = TokenStatus.getMillisUntilReset(status);
+        assertTrue("reset was " + reset, reset > 9000 && reset <= 10000);
+
+        assertTrue(TokenStatus.isUsable(rateLimiter.getTokenStatus(key, Priority.CRITICAL)));
+
+        status = rateLimiter.getTokenStatus(key, Priority.CRITICAL);
+        assertFalse(TokenStatus.isUsable(status));
+        assertEquals(0, TokenStatus.getRemaining(status));
+        assertEquals(10, TokenStatus.getRetryAfterInSeconds(status));
+
+        rateLimiter.setEnabled(false);
+        assertEquals(TokenStatus.UNLIMITED, rateLimiter.getTokenStatus(key, Priority.LOW));
+    }
+
+    protected int countAllowed(RateLimiter rateLimiter, Key key) {
+        int allowed = 0;
+
+        while (rateLimiter.getToken(key).isUsable()) {
+            ++allowed;
+        }
+
+        return allowed;
+    }
+
     /**
      * Factory Method to return a {@link TokenStore} for test usage.
      * 
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestAdaptiveRateLimiter {
+
+    @Test
+    public void limitGrowsWhileLatencyIsSteadyAndShrinksWhenItRises() throws Exception {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(10);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+
+        AdaptiveRateLimiter adaptive = new AdaptiveRateLimiter(rateLimiter);
+        adaptive.setSampleWindowInMillis(1);
+        adaptive.setMinimumSamples(1);
+        adaptive.setSmoothing(1);
+
+        for (int i = 0; i < 5; ++i) {
+            runWindow(adaptive, 1000000);
+        }
+
+        int grown = adaptive.getAllowedRequests();
+        assertTrue("limit grew to " + grown, grown > 20);
+        assertEquals("the limit is applied to the delegate", grown, rateLimiter.getAllowedRequests());
+
+        runWindow(adaptive, 10000000);
+
+        int shrunk = adaptive.getAllowedRequests();
+        assertTrue("limit shrank to " + shrunk, shrunk < grown);
+        assertEquals(10000000L, adaptive.getRecentRttInNanos());
+
+        adaptive.recordDropped();
+        Thread.sleep(2);
+        adaptive.recordDropped();
+
+        assertTrue("dropped calls halve the limit", adaptive.getAllowedRequests() <= shrunk / 2 + 1);
+    }
+
+    @Test
+    public void limitStaysWithinBounds() throws Exception {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(10);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+
+        AdaptiveRateLimiter adaptive = new AdaptiveRateLimiter(rateLimiter);
+        adaptive.setSampleWindowInMillis(1);
+        adaptive.setMinimumSamples(1);
+        adaptive.setSmoothing(1);
+        adaptive.setMinLimit(5);
+        adaptive.setMaxLimit(12);
+
+        for (int i = 0; i < 5; ++i) {
+            runWindow(adaptive, 1000000);
+        }
+
+        assertEquals(12, adaptive.getAllowedRequests());
+
+        for (int i = 0; i < 5; ++i) {
+            Thread.sleep(2);
+            adaptive.recordDropped();
+        }
+
+        assertEquals(5, adaptive.getAllowedRequests());
+    }
+
+    /**
+     * Waits for the current sample window to end and then records a sample, which closes the window.
+     * 
+     * @param adaptive
+     *            the non-null {@link AdaptiveRateLimiter}
+     * @param rttInNanos
+     *            the round-trip time to record
+     */
+    private void runWindow(AdaptiveRateLimiter adaptive, long rttInNanos) throws InterruptedException {
+        adaptive.recordLatency(rttInNanos);
+        Thread.sleep(2);
+        adaptive.recordLatency(rttInNanos);
+    }
+
+}
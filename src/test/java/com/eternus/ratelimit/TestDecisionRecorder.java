@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestDecisionRecorder {
+
+    @Test
+    public void decisionsAreReadBackOldestFirst() throws Exception {
+        File file = File.createTempFile("decisions", ".log");
+        file.deleteOnExit();
+
+        DecisionRecorder recorder = new DecisionRecorder(file, 4);
+        VirtualClock clock = new VirtualClock(5000);
+
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new MemoryTokenStore(clock));
+        rateLimiter.setDecisionRecorder(recorder);
+        rateLimiter.init();
+
+        for (int i = 0; i < 6; ++i) {
+            rateLimiter.getToken(42);
+            clock.advance(1);
+        }
+
+        recorder.close();
+        assertEquals(6, recorder.getRecordedCount());
+
+        DecisionLogReader reader = new DecisionLogReader(file);
+
+        try {
+            long[] sequences = { 2, 3, 4, 5 };
+
+            for (long sequence : sequences) {
+                DecisionLogReader.Decision decision = reader.next();
+                assertEquals("the ring keeps the newest records", sequence, decision.getSequence());
+                assertEquals("the time by the limiter's clock", 5000 + sequence, decision.getTimestamp());
+                assertEquals(42, decision.getKeyHash());
+                assertFalse(decision.isAllowed());
+                assertEquals(0, decision.getRemaining());
+            }
+
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void concurrentWritersNeverTearARecord() throws Exception {
+        File file = File.createTempFile("decisions", ".log");
+        file.deleteOnExit();
+
+        final DecisionRecorder recorder = new DecisionRecorder(file, 2);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 8; ++t) {
+            final long base = t * 1000000L;
+            Thread thread = new Thread() {
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public void run() {
+                    for (long i = 0; i < 20000; ++i) {
+                        recorder.record(base + i, base + i, base + i);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        recorder.close();
+        assertEquals(160000, recorder.getRecordedCount());
+        assertTrue(recorder.getDroppedCount() < recorder.getRecordedCount());
+
+        DecisionLogReader reader = new DecisionLogReader(file);
+
+        try {
+            int read = 0;
+
+            for (DecisionLogReader.Decision decision = reader.next(); decision != null; decision = reader.next()) {
+                assertEquals("fields from one write", decision.getKeyHash(), decision.getStatus());
+                assertEquals("fields from one write", decision.getKeyHash(), decision.getTimestamp());
+                ++read;
+            }
+
+            assertTrue(read > 0);
+        } finally {
+            reader.close();
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFairQueueingRateLimiter {
+
+    private FixedBucket rateLimiter;
+
+    private FairQueueingRateLimiter fair;
+
+    @Before
+    public void setUp() {
+        rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(1);
+        rateLimiter.setDuration(60);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+
+        fair = new FairQueueingRateLimiter(rateLimiter, LongKey.valueOf(0));
+    }
+
+    @After
+    public void tearDown() {
+        fair.shutdown();
+    }
+
+    @Test
+    public void requestsAreServedImmediatelyWhileNobodyIsWaiting() throws Exception {
+        assertTrue(fair.getToken(LongKey.valueOf(1), 1, TimeUnit.SECONDS).isUsable());
+        assertFalse(fair.getToken(LongKey.valueOf(1)).isUsable());
+    }
+
+    @Test
+    public void waitingRequestsTimeOut() throws Exception {
+        assertTrue(fair.getToken(LongKey.valueOf(1)).isUsable());
+
+        long start = System.nanoTime();
+        assertFalse(fair.getToken(LongKey.valueOf(1), 20, TimeUnit.MILLISECONDS).isUsable());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, fair.getWaitingCount());
+    }
+
+    @Test
+    public void quietKeyIsNotStarvedByNoisyKey() throws Exception {
+        assertTrue(fair.getToken(LongKey.valueOf(1)).isUsable());
+
+        List<Long> served = new CopyOnWriteArrayList<Long>();
+        List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+        for (int i = 0; i < 5; ++i) {
+            threads.add(waitFor(1, served));
+        }
+
+        awaitWaiting(5);
+        threads.add(waitFor(2, served));
+        awaitWaiting(6);
+
+        assertFalse("the queues cannot be jumped", fair.getToken(LongKey.valueOf(3)).isUsable());
+
+        rateLimiter.setAllowedRequests(3);
+        awaitWaiting(4);
+
+        while (served.size() < 2) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(2, served.size());
+        assertTrue("quiet key served in its turn: " + served, served.contains(2L));
+
+        rateLimiter.setAllowedRequests(7);
+
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertEquals(6, served.size());
+        assertEquals(0, fair.getWaitingCount());
+    }
+
+    @Test
+    public void idleQueuesAreDiscarded() throws Exception {
+        assertTrue(fair.getToken(LongKey.valueOf(1)).isUsable());
+
+        List<Long> served = new CopyOnWriteArrayList<Long>();
+        Thread first = waitFor(1, served);
+        Thread second = waitFor(2, served);
+        awaitWaiting(2);
+        assertEquals(2, fair.getQueueCount());
+
+        rateLimiter.setAllowedRequests(3);
+        first.join(5000);
+        second.join(5000);
+
+        assertEquals(2, served.size());
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (fair.getQueueCount() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(0, fair.getQueueCount());
+    }
+
+    @Test
+    public void shutdownWakesWaitingRequests() throws Exception {
+        assertTrue(fair.getToken(LongKey.valueOf(1)).isUsable());
+
+        List<Long> served = new CopyOnWriteArrayList<Long>();
+        Thread thread = waitFor(1, served);
+        awaitWaiting(1);
+
+        long start = System.nanoTime();
+        fair.shutdown();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertTrue("woken well before the timeout", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertTrue(served.isEmpty());
+        assertEquals(0, fair.getWaitingCount());
+    }
+
+    private Thread waitFor(final long key, final List<Long> served) {
+        Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    if (fair.getToken(LongKey.valueOf(key), 5, TimeUnit.SECONDS).isUsable()) {
+                        served.add(key);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (fair.getWaitingCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(count, fair.getWaitingCount());
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.eternus.ratelimit;
 
+import static org.junit.Assert.*;
+
+import org.junit.Test;
 
 public class TestFixedBucketWithCoarseMemoryStore extends FixedBucketTests {
 
@@ -8,4 +11,28 @@ public class TestFixedBucketWithCoarseMemoryStore extends FixedBucketTests {
         return new CoarseMemoryTokenStore();
     }
 
+    @Test
+    public void limitWarmsUpAfterStartAndAfterIdling() {
+        VirtualClock clock = new VirtualClock(1000);
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(100);
+        rateLimiter.setDuration(10);
+        rateLimiter.setWarmUpPeriodInMillis(200);
+        rateLimiter.setColdFraction(0.1f);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new CoarseMemoryTokenStore(clock));
+        rateLimiter.init();
+
+        assertEquals("cold at start", 10, countAllowed(rateLimiter, new RateLimiterKey()));
+
+        clock.advance(100);
+        assertEquals("half way through warming up", 55, countAllowed(rateLimiter, new RateLimiterKey()));
+
+        clock.advance(150);
+        assertEquals("warm", 100, countAllowed(rateLimiter, new RateLimiterKey()));
+
+        clock.advance(250);
+        assertEquals("cold again after idling", 10, countAllowed(rateLimiter, new RateLimiterKey()));
+    }
+
 }
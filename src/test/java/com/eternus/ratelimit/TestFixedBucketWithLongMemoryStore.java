@@ -0,0 +1,90 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestFixedBucketWithLongMemoryStore extends FixedBucketTests {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected TokenStore createTokenStore() {
+        return new LongMemoryTokenStore();
+    }
+
+    @Test
+    public void manyDistinctKeysAreKeptApart() {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(1);
+        rateLimiter.setTokenStore(createTokenStore());
+        rateLimiter.init();
+
+        for (long key = 0; key < 10000; ++key) {
+            assertTrue(rateLimiter.getToken(key * 31).isUsable());
+        }
+
+        for (long key = 0; key < 10000; ++key) {
+            assertFalse(rateLimiter.getToken(key * 31).isUsable());
+        }
+    }
+
+    @Test
+    public void idleClientsAccumulateBurstCredit() {
+        VirtualClock clock = new VirtualClock(1000);
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setMaxBurstCredit(4);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new LongMemoryTokenStore(clock));
+        rateLimiter.init();
+
+        long status = rateLimiter.getTokenStatus(7);
+        assertTrue(TokenStatus.isUsable(status));
+        assertEquals("a new client starts with no credit", 1, TokenStatus.getRemaining(status));
+        assertEquals(1, countAllowed(rateLimiter, LongKey.valueOf(7)));
+
+        clock.advance(2000);
+
+        assertEquals("one slot's allowance plus the credit from the idle slot", 4, countAllowed(rateLimiter, LongKey.valueOf(7)));
+    }
+
+    @Test
+    public void busyClientsGainNoCreditWhenTheirEntryIsRecreated() {
+        VirtualClock clock = new VirtualClock(1000);
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setMaxBurstCredit(4);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new LongMemoryTokenStore(clock));
+        rateLimiter.init();
+
+        for (int slot = 0; slot < 100; ++slot) {
+            int allowed = 0;
+
+            while (rateLimiter.getToken(7).isUsable()) {
+                ++allowed;
+            }
+
+            assertEquals("slot " + slot, 2, allowed);
+            clock.advance(1000);
+        }
+    }
+
+}
@@ -15,6 +15,13 @@
  */
 package com.eternus.ratelimit;
 
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
 
 public class TestFixedBucketWithMemoryStore extends FixedBucketTests {
 
@@ -26,4 +33,63 @@ public class TestFixedBucketWithMemoryStore extends FixedBucketTests {
         return new MemoryTokenStore();
     }
 
+    @Test
+    public void expiredEntriesAreSweptOutByTheStoreClock() {
+        VirtualClock clock = new VirtualClock(1000);
+        MemoryTokenStore store = new MemoryTokenStore(clock);
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(1);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(store);
+        rateLimiter.init();
+
+        for (long key = 0; key < 100; ++key) {
+            assertTrue(rateLimiter.getToken(key).isUsable());
+        }
+
+        assertEquals(100, store.size());
+        clock.advance(rateLimiter.getDuration() * 1000L + 1);
+        assertTrue(rateLimiter.getToken(100).isUsable());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void entriesFromOtherStoresReportAnUnknownStatus() {
+        final ConcurrentMap<Key, StoreEntry> entries = new ConcurrentHashMap<Key, StoreEntry>();
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(1);
+        rateLimiter.setMaxBurstCredit(4);
+        rateLimiter.setTokenStore(new TokenStore() {
+
+            public StoreEntry get(Key key) {
+                return entries.get(key);
+            }
+
+            public StoreEntry create(Key key, int timeToLiveInSecs) {
+                entries.putIfAbsent(key, new StoreEntry() {
+
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public int incrementAndGet() {
+                        return count.incrementAndGet();
+                    }
+
+                    public boolean isExpired() {
+                        return false;
+                    }
+                });
+                return entries.get(key);
+            }
+        });
+        rateLimiter.init();
+
+        long status = rateLimiter.getTokenStatus(LongKey.valueOf(3));
+        assertTrue(TokenStatus.isUsable(status));
+        assertFalse(TokenStatus.isKnown(status));
+
+        status = rateLimiter.getTokenStatus(3);
+        assertFalse(TokenStatus.isUsable(status));
+        assertFalse(TokenStatus.isKnown(status));
+    }
+
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestHotKeyTracker {
+
+    @Test
+    public void heavyHittersAreReportedFirst() {
+        HotKeyTracker tracker = new HotKeyTracker(4, 1);
+
+        for (int i = 0; i < 100; ++i) {
+            tracker.record("abusive", i >= 10);
+            tracker.record("key-" + i, false);
+        }
+
+        List<HotKey> top = tracker.getTopKeys(2);
+
+        assertEquals(2, top.size());
+        assertEquals("abusive", top.get(0).getKey());
+        assertEquals(100L, top.get(0).getRequestCount());
+        assertEquals(90L, top.get(0).getDenialCount());
+    }
+
+    @Test
+    public void fixedBucketReportsDenials() {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(1);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.setHotKeyTracker(new HotKeyTracker(8, 1));
+        rateLimiter.init();
+
+        RateLimiterKey key = new RateLimiterKey();
+        rateLimiter.getToken(key);
+        rateLimiter.getToken(key);
+
+        HotKey hotKey = rateLimiter.getHotKeyTracker().getTopKeys(1).get(0);
+        assertSame(key, hotKey.getKey());
+        assertEquals(2L, hotKey.getRequestCount());
+        assertEquals(1L, hotKey.getDenialCount());
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestPolicyRateLimiter {
+
+    @Test
+    public void exactRulesWinOverTheLongestPrefix() {
+        FixedBucket search = createLimiter(1);
+        FixedBucket api = createLimiter(1);
+        FixedBucket admin = createLimiter(1);
+        FixedBucket fallback = createLimiter(1);
+
+        Map<String, RateLimiter> exact = new HashMap<String, RateLimiter>();
+        exact.put("/api/admin", admin);
+
+        Map<String, RateLimiter> prefixes = new HashMap<String, RateLimiter>();
+        prefixes.put("/api/", api);
+        prefixes.put("/api/search", search);
+
+        PolicyTable table = new PolicyTable(exact, prefixes, fallback);
+
+        assertSame(admin, table.resolve("/api/admin"));
+        assertSame(api, table.resolve("/api/admin/users"));
+        assertSame(search, table.resolve("/api/search?q=x"));
+        assertSame(api, table.resolve("/api/sear"));
+        assertSame(fallback, table.resolve("/api"));
+        assertSame(fallback, table.resolve("/static/logo.png"));
+    }
+
+    @Test
+    public void resolutionsAreCachedPerTableAndTablesCanBeSwapped() {
+        FixedBucket strict = createLimiter(1);
+        FixedBucket relaxed = createLimiter(100);
+
+        Map<String, RateLimiter> prefixes = new HashMap<String, RateLimiter>();
+        prefixes.put("test-key-", strict);
+
+        PolicyRateLimiter rateLimiter = new PolicyRateLimiter(new PolicyTable(null, prefixes, relaxed));
+        RateLimiterKey key = new RateLimiterKey();
+
+        assertTrue(rateLimiter.getToken(key).isUsable());
+        assertFalse("the strict policy applies", rateLimiter.getToken(key).isUsable());
+        assertEquals(1, rateLimiter.getPolicyTable().getCacheSize());
+
+        rateLimiter.setPolicyTable(new PolicyTable(null, null, relaxed));
+
+        assertTrue("the new table has no prefix rules", rateLimiter.getToken(key).isUsable());
+        assertEquals(100, rateLimiter.getAllowedRequests());
+    }
+
+    @Test
+    public void primitiveKeysResolveLikeTheirDecimalStringWithoutCaching() {
+        FixedBucket exactLimiter = createLimiter(1);
+        FixedBucket prefixLimiter = createLimiter(1);
+        FixedBucket negative = createLimiter(1);
+        FixedBucket fallback = createLimiter(1);
+
+        Map<String, RateLimiter> exact = new HashMap<String, RateLimiter>();
+        exact.put("42", exactLimiter);
+        exact.put("042", exactLimiter);
+
+        Map<String, RateLimiter> prefixes = new HashMap<String, RateLimiter>();
+        prefixes.put("12", prefixLimiter);
+        prefixes.put("-9", negative);
+
+        PolicyTable table = new PolicyTable(exact, prefixes, fallback);
+        long[] keys = { 0, 1, 12, 42, 420, 4, 129, 1200, -9, -92, -1, Long.MAX_VALUE, Long.MIN_VALUE, -922 };
+
+        for (long key : keys) {
+            assertSame(Long.toString(key), table.resolve(Long.toString(key)), table.resolve(key));
+        }
+
+        assertSame(exactLimiter, table.resolve(42L));
+        assertSame(prefixLimiter, table.resolve(1234L));
+        assertSame(negative, table.resolve(Long.MIN_VALUE));
+        assertSame(fallback, table.resolve(43L));
+
+        PolicyRateLimiter rateLimiter = new PolicyRateLimiter(table);
+        assertTrue(rateLimiter.getToken(42L).isUsable());
+        assertFalse("the exact policy applies", rateLimiter.getToken(42L).isUsable());
+        assertEquals("primitive keys are not cached", 0, table.getCacheSize());
+    }
+
+    private FixedBucket createLimiter(int allowedRequests) {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(allowedRequests);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+        return rateLimiter;
+    }
+
+}
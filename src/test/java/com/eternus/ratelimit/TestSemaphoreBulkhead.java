@@ -0,0 +1,124 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestSemaphoreBulkhead {
+
+    @Test
+    public void limitsConcurrentCallsPerKey() {
+        SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(2);
+        RateLimiterKey key = new RateLimiterKey();
+        RateLimiterKey other = new RateLimiterKey();
+
+        Permit first = bulkhead.tryAcquire(key);
+        Permit second = bulkhead.tryAcquire(key);
+
+        assertTrue(first.isUsable());
+        assertTrue(second.isUsable());
+        assertFalse("only two in flight", bulkhead.tryAcquire(key).isUsable());
+        assertTrue("keys are independent", bulkhead.tryAcquire(other).isUsable());
+        assertEquals(2, bulkhead.getConcurrentCalls(key));
+        assertEquals(3L, bulkhead.getConcurrentCalls());
+
+        first.release();
+
+        assertTrue(bulkhead.tryAcquire(key).isUsable());
+    }
+
+    @Test
+    public void boundedWaitIsWokenByRelease() throws Exception {
+        final SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(1);
+        final RateLimiterKey key = new RateLimiterKey();
+        final Permit held = bulkhead.tryAcquire(key);
+        final CountDownLatch waiting = new CountDownLatch(1);
+
+        assertFalse(bulkhead.tryAcquire(key, 10, TimeUnit.MILLISECONDS).isUsable());
+
+        Thread releaser = new Thread() {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void run() {
+                try {
+                    waiting.await();
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // fall through and release
+                }
+                held.release();
+            }
+        };
+        releaser.start();
+        waiting.countDown();
+
+        long start = System.nanoTime();
+        Permit permit = bulkhead.tryAcquire(key, 10, TimeUnit.SECONDS);
+
+        assertTrue(permit.isUsable());
+        assertTrue("woken well before the timeout", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        releaser.join();
+    }
+
+    @Test
+    public void idleKeysCanBeEvicted() {
+        SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(1);
+        RateLimiterKey idle = new RateLimiterKey();
+        RateLimiterKey busy = new RateLimiterKey();
+
+        bulkhead.tryAcquire(idle).release();
+        Permit permit = bulkhead.tryAcquire(busy);
+
+        assertEquals(1, bulkhead.evictIdle());
+        assertEquals(1, bulkhead.getConcurrentCalls(busy));
+        assertTrue(bulkhead.tryAcquire(idle).isUsable());
+
+        permit.release();
+    }
+
+    @Test
+    public void releasingAPermitTwiceHasNoEffect() {
+        SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(1);
+        RateLimiterKey key = new RateLimiterKey();
+
+        Permit permit = bulkhead.tryAcquire(key);
+        permit.release();
+        permit.release();
+
+        assertEquals(0, bulkhead.getConcurrentCalls(key));
+        assertEquals(0L, bulkhead.getConcurrentCalls());
+
+        Permit held = bulkhead.tryAcquire(key);
+        assertTrue(held.isUsable());
+        assertFalse("the second release did not free another call", bulkhead.tryAcquire(key).isUsable());
+
+        permit.release();
+        assertEquals("a stale permit does not free a call held by someone else", 1, bulkhead.getConcurrentCalls(key));
+        assertFalse(bulkhead.tryAcquire(key).isUsable());
+
+        held.release();
+        assertTrue(bulkhead.tryAcquire(key).isUsable());
+    }
+
+}
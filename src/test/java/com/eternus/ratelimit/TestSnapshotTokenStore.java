@@ -0,0 +1,135 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestSnapshotTokenStore {
+
+    @Test
+    public void restoredStoresCarryOnCountingWhereTheOldOneLeftOff() throws Exception {
+        SnapshotTokenStore[] sources = { new MemoryTokenStore(), new CoarseMemoryTokenStore(),
+                new LongMemoryTokenStore() };
+
+        for (SnapshotTokenStore source : sources) {
+            FixedBucket old = createRateLimiter(source);
+
+            for (int i = 0; i < 3; ++i) {
+                assertTrue(old.getToken(42).isUsable());
+            }
+
+            assertTrue(old.getToken(43).isUsable());
+            assertTrue("not encodable, so left out", old.getToken(new RateLimiterKey()).isUsable());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2, source.writeSnapshot(out, new LongKeyCodec()));
+
+            SnapshotTokenStore[] targets = { new MemoryTokenStore(), new CoarseMemoryTokenStore(),
+                    new LongMemoryTokenStore() };
+
+            for (SnapshotTokenStore target : targets) {
+                assertEquals(2, target.readSnapshot(new ByteArrayInputStream(out.toByteArray()), new LongKeyCodec()));
+
+                FixedBucket restored = createRateLimiter(target);
+                assertTrue(restored.getToken(42).isUsable());
+                assertTrue(restored.getToken(42).isUsable());
+                assertFalse("the window carried over", restored.getToken(42).isUsable());
+                assertEquals(3, TokenStatus.getRemaining(restored.getTokenStatus(43, Priority.CRITICAL)));
+            }
+        }
+    }
+
+    @Test
+    public void burstCreditIsRestored() throws Exception {
+        VirtualClock clock = new VirtualClock(1000);
+        LongMemoryTokenStore source = new LongMemoryTokenStore(clock);
+        FixedBucket old = createCreditRateLimiter(source, clock);
+
+        assertTrue(old.getToken(42).isUsable());
+        assertTrue(old.getToken(42).isUsable());
+        clock.advance(500);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, source.writeSnapshot(out, new LongKeyCodec()));
+
+        SnapshotTokenStore[] targets = { new MemoryTokenStore(clock), new CoarseMemoryTokenStore(clock),
+                new LongMemoryTokenStore(clock) };
+
+        for (SnapshotTokenStore target : targets) {
+            assertEquals(1, target.readSnapshot(new ByteArrayInputStream(out.toByteArray()), new LongKeyCodec()));
+
+            FixedBucket restored = createCreditRateLimiter(target, clock);
+            assertFalse("the budget carried over", restored.getToken(42).isUsable());
+        }
+
+        LongMemoryTokenStore target = new LongMemoryTokenStore(clock);
+        target.readSnapshot(new ByteArrayInputStream(out.toByteArray()), new LongKeyCodec());
+        FixedBucket restored = createCreditRateLimiter(target, clock);
+        clock.advance(1500);
+
+        int allowed = 0;
+
+        while (restored.getToken(42).isUsable()) {
+            ++allowed;
+        }
+
+        assertEquals("the allowance plus the credit of the idle slot since the original origin", 4, allowed);
+    }
+
+    @Test
+    public void expiredEntriesAreNotRestored() throws Exception {
+        MemoryTokenStore source = new MemoryTokenStore();
+        createRateLimiter(source).getToken(42);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, source.writeSnapshot(out, new LongKeyCodec()));
+
+        Thread.sleep(1100);
+
+        assertEquals(0, new MemoryTokenStore().readSnapshot(new ByteArrayInputStream(out.toByteArray()),
+                new LongKeyCodec()));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws Exception {
+        new MemoryTokenStore().readSnapshot(new ByteArrayInputStream(new byte[16]), new LongKeyCodec());
+    }
+
+    private FixedBucket createCreditRateLimiter(TokenStore store, Clock clock) {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setMaxBurstCredit(4);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(store);
+        rateLimiter.init();
+        return rateLimiter;
+    }
+
+    private FixedBucket createRateLimiter(TokenStore store) {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(5);
+        rateLimiter.setTokenStore(store);
+        rateLimiter.init();
+        return rateLimiter;
+    }
+
+}
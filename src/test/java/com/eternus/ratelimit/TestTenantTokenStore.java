@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestTenantTokenStore {
+
+    /**
+     * Keys are account ids, with the tenant in the thousands.
+     */
+    private static final TenantResolver RESOLVER = new TenantResolver() {
+
+        public Object getTenant(Key key) {
+            return key instanceof LongKey ? getTenant(((LongKey) key).longValue()) : "other";
+        }
+
+        public Object getTenant(long key) {
+            return key / 1000;
+        }
+    };
+
+    @Test
+    public void fullTenantSharesAnOverflowEntryWithoutAffectingOthers() {
+        VirtualClock clock = new VirtualClock(1000);
+        TenantTokenStore store = new TenantTokenStore(RESOLVER, 100, clock);
+        store.setMaxEntries(0L, 2);
+
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(store);
+        rateLimiter.init();
+
+        assertTrue(rateLimiter.getToken(1).isUsable());
+        assertTrue(rateLimiter.getToken(2).isUsable());
+        assertTrue("new keys share the overflow entry", rateLimiter.getToken(3).isUsable());
+        assertTrue(rateLimiter.getToken(4).isUsable());
+        assertFalse("the overflow entry is used up", rateLimiter.getToken(5).isUsable());
+        assertTrue("keys with entries are unaffected", rateLimiter.getToken(LongKey.valueOf(1)).isUsable());
+        assertFalse(rateLimiter.getToken(1).isUsable());
+        assertFalse("an overflowed key keeps the overflow entry", rateLimiter.getToken(3).isUsable());
+
+        for (int i = 0; i < 2; ++i) {
+            assertTrue("other tenants are unaffected", rateLimiter.getToken(1001).isUsable());
+            assertTrue(rateLimiter.getToken(new RateLimiterKey()).isUsable());
+        }
+
+        assertEquals(2, store.getEntryCount(0L));
+        assertEquals(3, store.getOverflowCount(0L));
+        assertEquals(1, store.getEntryCount(1L));
+        assertEquals(0, store.getOverflowCount(1L));
+        assertEquals(2, store.getEntryCount("other"));
+        assertEquals(3, store.getTenants().size());
+
+        clock.advance(2000);
+
+        assertTrue("expired entries make room", rateLimiter.getToken(6).isUsable());
+        assertEquals(1, store.getEntryCount(0L));
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs the {@link TestCircuitBreaker} tests against {@link AtomicCircuitBreaker}, plus some concurrency tests.
+ * 
+ * @author jabley
+ * 
+ */
+public class TestAtomicCircuitBreaker extends TestCircuitBreaker {
+
+    @Test
+    public void concurrentFailuresTripOnlyOnce() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(0);
+        config.setTimeoutInMillis(60000);
+        final CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        int clientCount = 16;
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(clientCount);
+        ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+
+        for (int i = 0; i < clientCount; ++i) {
+            executor.execute(new Runnable() {
+
+                /**
+                 * {@inheritDoc}
+                 */
+                public void run() {
+                    try {
+                        startGate.await();
+
+                        for (int j = 0; j < 1000; ++j) {
+                            circuitBreaker.handleFailure();
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            });
+        }
+
+        startGate.countDown();
+        assertTrue(endGate.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals("OPEN", circuitBreaker.getCurrentState());
+        assertEquals(1L, circuitBreaker.getTripCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CircuitBreakerConfiguration createConfiguration() {
+        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        config.setAllocationFree(true);
+        return config;
+    }
+
+}
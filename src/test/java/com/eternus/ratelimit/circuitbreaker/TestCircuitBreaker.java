@@ -2,13 +2,22 @@ package com.eternus.ratelimit.circuitbreaker;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 public class TestCircuitBreaker {
 
     @Test
     public void basicUsage() throws Exception {
-        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        CircuitBreakerConfiguration config = createConfiguration();
         config.setThreshold(1);
         config.setTimeoutInMillis(100);
         CircuitBreaker circuitBreaker = config.createCircuitBreaker();
@@ -39,7 +48,7 @@ public class TestCircuitBreaker {
 
     @Test
     public void willAttemptReset() throws Exception {
-        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        CircuitBreakerConfiguration config = createConfiguration();
         config.setThreshold(1);
         config.setTimeoutInMillis(100);
         CircuitBreaker circuitBreaker = config.createCircuitBreaker();
@@ -85,7 +94,7 @@ public class TestCircuitBreaker {
 
     @Test
     public void canBeResetAndSuccessfullyCarryOn() throws Exception {
-        CircuitBreakerConfiguration config = new CircuitBreakerConfiguration();
+        CircuitBreakerConfiguration config = createConfiguration();
         config.setThreshold(0);
         config.setTimeoutInMillis(100);
         CircuitBreaker circuitBreaker = config.createCircuitBreaker();
@@ -127,6 +136,338 @@ public class TestCircuitBreaker {
          
     }
     
+    @Test
+    public void failureRatePolicyTripsOnIntermittentFailures() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(3);
+        config.setFailureRateThreshold(30);
+        config.setSlidingWindowSize(20);
+        config.setMinimumNumberOfCalls(10);
+        CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        Runnable failingOperation = new Runnable() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void run() {
+                doFailingOp();
+            }
+        };
+
+        Runnable successfulOperation = new Runnable() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void run() {
+                // no-op - simulate successful operation
+            }
+        };
+
+        for (int i = 0; i < 9; ++i) {
+            tryGuardedOperation(circuitBreaker, i % 5 < 2 ? failingOperation : successfulOperation);
+        }
+
+        assertEquals("too few calls to consider the failure rate", "CLOSED", circuitBreaker.getCurrentState());
+
+        tryGuardedOperation(circuitBreaker, failingOperation);
+
+        assertEquals("over 30% of calls failed, never more than 2 in a row", "OPEN", circuitBreaker.getCurrentState());
+        assertEquals(1L, circuitBreaker.getTripCount());
+    }
+
+    @Test
+    public void slowCallRateTripsEvenThoughCallsSucceed() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setSlowCallDurationThresholdInMillis(50);
+        config.setSlowCallRateThreshold(50);
+        config.setSlidingWindowSize(10);
+        config.setMinimumNumberOfCalls(4);
+        CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        long slow = TimeUnit.MILLISECONDS.toNanos(200);
+
+        circuitBreaker.before();
+        circuitBreaker.after(1000);
+        circuitBreaker.before();
+        circuitBreaker.after(slow);
+        circuitBreaker.before();
+        circuitBreaker.after(1000);
+
+        assertEquals("too few calls to consider the slow call rate", "CLOSED", circuitBreaker.getCurrentState());
+
+        circuitBreaker.before();
+        Thread.sleep(60);
+        circuitBreaker.after();
+
+        assertEquals("half of the calls were slow", "OPEN", circuitBreaker.getCurrentState());
+        assertEquals(1L, circuitBreaker.getTripCount());
+    }
+
+    @Test
+    public void listenersAreNotifiedInOrderOffTheRequestThread() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(0);
+        config.setListenerExecutor(executor);
+        CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        final Thread requestThread = Thread.currentThread();
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        final CountDownLatch delivered = new CountDownLatch(300);
+
+        circuitBreaker.addListener(new CircuitBreakerListener() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void tripped() {
+                record("tripped");
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public void reset() {
+                record("reset");
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            public void attemptReset() {
+                record("attemptReset");
+            }
+
+            private void record(String event) {
+                assertNotSame(requestThread, Thread.currentThread());
+                events.add(event);
+                delivered.countDown();
+            }
+        });
+
+        for (int i = 0; i < 100; ++i) {
+            circuitBreaker.tripBreaker();
+            circuitBreaker.attemptReset();
+            circuitBreaker.reset();
+        }
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        for (int i = 0; i < 300; i += 3) {
+            assertEquals("tripped", events.get(i));
+            assertEquals("attemptReset", events.get(i + 1));
+            assertEquals("reset", events.get(i + 2));
+        }
+    }
+
+    @Test
+    public void halfOpenAdmitsOnlyPermittedTrialCalls() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(0);
+        config.setTimeoutInMillis(50);
+        config.setPermittedHalfOpenCalls(2);
+        config.setHalfOpenSuccessQuorum(2);
+        CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        circuitBreaker.handleFailure();
+        assertEquals("OPEN", circuitBreaker.getCurrentState());
+
+        Thread.sleep(60);
+
+        circuitBreaker.before();
+        assertEquals("HALF_OPEN", circuitBreaker.getCurrentState());
+        circuitBreaker.before();
+
+        try {
+            circuitBreaker.before();
+            fail("only two trial calls are permitted");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+
+        circuitBreaker.after();
+        assertEquals("quorum not yet reached", "HALF_OPEN", circuitBreaker.getCurrentState());
+
+        circuitBreaker.after();
+        assertEquals("CLOSED", circuitBreaker.getCurrentState());
+        assertEquals(1L, circuitBreaker.getTripCount());
+    }
+
+    @Test
+    public void concurrentCallersShareOneHalfOpenState() throws Exception {
+        final int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int round = 0; round < 200; ++round) {
+                CircuitBreakerConfiguration config = createConfiguration();
+                config.setThreshold(0);
+                config.setTimeoutInMillis(1);
+                config.setPermittedHalfOpenCalls(2);
+                final CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+                circuitBreaker.handleFailure();
+                Thread.sleep(2);
+
+                final CyclicBarrier start = new CyclicBarrier(threads);
+                final CyclicBarrier admittedAll = new CyclicBarrier(threads);
+                final AtomicInteger admitted = new AtomicInteger();
+                final CountDownLatch done = new CountDownLatch(threads);
+
+                for (int i = 0; i < threads; ++i) {
+                    executor.execute(new Runnable() {
+
+                        /**
+                         * {@inheritDoc}
+                         */
+                        public void run() {
+                            try {
+                                start.await();
+                                boolean trial = circuitBreaker.tryBefore();
+
+                                if (trial) {
+                                    admitted.incrementAndGet();
+                                }
+
+                                admittedAll.await();
+
+                                if (trial) {
+                                    circuitBreaker.handleFailure();
+                                }
+                            } catch (Exception e) {
+                                // counted as not done
+                                return;
+                            }
+
+                            done.countDown();
+                        }
+                    });
+                }
+
+                assertTrue(done.await(5, TimeUnit.SECONDS));
+                assertEquals("trial calls are limited across threads", 2, admitted.get());
+                assertEquals("failing trials trip the breaker once", 2L, circuitBreaker.getTripCount());
+                assertEquals("OPEN", circuitBreaker.getCurrentState());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void openCircuitBreakerFailsFastWithoutAllocating() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(0);
+        config.setTimeoutInMillis(50);
+        CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        assertTrue(circuitBreaker.tryBefore());
+        circuitBreaker.handleFailure();
+
+        assertFalse(circuitBreaker.tryBefore());
+
+        CircuitBreakerOpenException first = null;
+        CircuitBreakerOpenException second = null;
+
+        try {
+            circuitBreaker.before();
+        } catch (CircuitBreakerOpenException e) {
+            first = e;
+        }
+
+        try {
+            circuitBreaker.before();
+        } catch (CircuitBreakerOpenException e) {
+            second = e;
+        }
+
+        assertNotNull(first);
+        assertSame("the exception is preallocated", first, second);
+        assertEquals("no stack trace is filled in", 0, first.getStackTrace().length);
+
+        Thread.sleep(60);
+
+        assertTrue(circuitBreaker.tryBefore());
+        assertEquals("HALF_OPEN", circuitBreaker.getCurrentState());
+        circuitBreaker.after();
+        assertEquals("CLOSED", circuitBreaker.getCurrentState());
+    }
+
+    @Test
+    public void consecutiveTripsBackOffUntilAResetSucceeds() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(0);
+        config.setTimeoutInMillis(50);
+        config.setBackoffMultiplier(4);
+        config.setMaxTimeoutInMillis(150);
+        CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+
+        circuitBreaker.handleFailure();
+        assertTrue(circuitBreaker.getTimeToResetInMillis() <= 50);
+
+        Thread.sleep(60);
+        circuitBreaker.before();
+        circuitBreaker.handleFailure();
+
+        long timeToReset = circuitBreaker.getTimeToResetInMillis();
+        assertTrue("second trip backs off up to the cap: " + timeToReset, timeToReset > 100 && timeToReset <= 150);
+
+        circuitBreaker.reset();
+        circuitBreaker.handleFailure();
+        assertTrue("a clean reset restores the base timeout", circuitBreaker.getTimeToResetInMillis() <= 50);
+        assertEquals(3L, circuitBreaker.getTripCount());
+    }
+
+    @Test
+    public void jitterSpreadsTheTimeout() throws Exception {
+        CircuitBreakerConfiguration config = createConfiguration();
+        config.setThreshold(0);
+        config.setTimeoutInMillis(10000);
+        config.setJitterFactor(0.5);
+
+        boolean spread = false;
+
+        for (int i = 0; i < 20 && !spread; ++i) {
+            CircuitBreaker circuitBreaker = config.createCircuitBreaker();
+            circuitBreaker.handleFailure();
+            long timeToReset = circuitBreaker.getTimeToResetInMillis();
+
+            assertTrue(timeToReset >= 4900 && timeToReset <= 15000);
+            spread = timeToReset < 9000 || timeToReset > 11000;
+        }
+
+        assertTrue("some timeouts are changed by the jitter", spread);
+    }
+
+    @Test
+    public void jitterStillSpreadsCappedTimeouts() {
+        BackoffPolicy backoff = new BackoffPolicy(1000, 2, 4000, 0.5);
+        int atCap = 0;
+
+        for (int i = 0; i < 50; ++i) {
+            int timeout = backoff.timeoutFor(10);
+            assertTrue("timeout was " + timeout, timeout >= 2000 && timeout <= 4000);
+
+            if (timeout == 4000) {
+                ++atCap;
+            }
+        }
+
+        assertTrue("capped timeouts do not collapse onto the cap", atCap < 5);
+    }
+
+    /**
+     * Factory Method to return a {@link CircuitBreakerConfiguration} for test usage.
+     * 
+     * @return a non-null {@link CircuitBreakerConfiguration}
+     */
+    protected CircuitBreakerConfiguration createConfiguration() {
+        return new CircuitBreakerConfiguration();
+    }
+
     private void tryGuardedOperation(CircuitBreaker circuitBreaker, Runnable operation) {
         try {
             circuitBreaker.before();
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2009 James Abley
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package com.eternus.ratelimit.circuitbreaker;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.eternus.ratelimit.Key;
+
+public class TestCircuitBreakerRegistry {
+
+    @Test
+    public void breakersAreCreatedPerKeyAndIdleClosedOnesEvicted() {
+        CircuitBreakerConfiguration template = new CircuitBreakerConfiguration();
+        template.setThreshold(0);
+        template.setTimeoutInMillis(60000);
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(template);
+
+        Key healthy = new Key() {
+        };
+        Key failing = new Key() {
+        };
+
+        CircuitBreaker breaker = registry.getCircuitBreaker(healthy);
+        assertSame(breaker, registry.getCircuitBreaker(healthy));
+        registry.getCircuitBreaker(failing).handleFailure();
+
+        assertEquals(2, registry.getSize());
+        assertEquals(1, registry.getOpenCount());
+        assertEquals(1L, registry.getTotalTripCount());
+
+        assertEquals("both were used in this period", 0, registry.evictIdle());
+        assertEquals("the closed breaker was idle for a whole period", 1, registry.evictIdle());
+
+        assertEquals(1, registry.getSize());
+        assertEquals(1L, registry.getEvictedCount());
+        assertNotSame(breaker, registry.getCircuitBreaker(healthy));
+        assertEquals(3L, registry.getCreatedCount());
+        assertEquals(1L, registry.getTotalTripCount());
+    }
+
+    @Test
+    public void aFullRegistryIsSweptAtMostOncePerPeriod() {
+        CircuitBreakerConfiguration template = new CircuitBreakerConfiguration();
+        template.setThreshold(0);
+        template.setTimeoutInMillis(60000);
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(template);
+        registry.setMaximumSize(2);
+
+        CircuitBreaker failing = registry.getCircuitBreaker(new Key() {
+        });
+        registry.getCircuitBreaker(new Key() {
+        });
+        failing.handleFailure();
+        registry.evictIdle();
+
+        registry.getCircuitBreaker(new Key() {
+        });
+        assertEquals("only the idle closed breaker is evicted", 1L, registry.getEvictedCount());
+        assertEquals(2, registry.getSize());
+
+        failing.reset();
+        registry.getCircuitBreaker(new Key() {
+        });
+        assertEquals("the registry was already swept in this period", 1L, registry.getEvictedCount());
+        assertEquals(3, registry.getSize());
+
+        assertEquals("the reset breaker is idle for a whole period", 1, registry.evictIdle());
+        registry.getCircuitBreaker(new Key() {
+        });
+        assertEquals("a miss in the next period sweeps again", 4L, registry.getEvictedCount());
+        assertEquals(1, registry.getSize());
+    }
+
+}
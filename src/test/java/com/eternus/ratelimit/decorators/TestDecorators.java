@@ -0,0 +1,171 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.decorators;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.eternus.ratelimit.FixedBucket;
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.MemoryTokenStore;
+import com.eternus.ratelimit.Permit;
+import com.eternus.ratelimit.SemaphoreBulkhead;
+import com.eternus.ratelimit.circuitbreaker.CircuitBreaker;
+import com.eternus.ratelimit.circuitbreaker.CircuitBreakerImpl;
+
+public class TestDecorators {
+
+    private final Key key = new Key() {
+    };
+
+    @Test
+    public void guardsAreAppliedInOrder() throws Exception {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(3);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+
+        SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(1);
+        CircuitBreaker circuitBreaker = new CircuitBreakerImpl(0, 60000);
+
+        Callable<String> guarded = Decorators.none().withRateLimiter(rateLimiter, key).withBulkhead(bulkhead, key)
+                .withCircuitBreaker(circuitBreaker).decorateCallable(new Callable<String>() {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public String call() throws Exception {
+                        return "ok";
+                    }
+                });
+
+        assertEquals("ok", guarded.call());
+        assertEquals("the permit is released", 0, bulkhead.getConcurrentCalls(key));
+
+        Permit held = bulkhead.tryAcquire(key);
+        assertRejected(guarded, CallNotPermittedException.Reason.BULKHEAD_FULL);
+        held.release();
+
+        circuitBreaker.tripBreaker();
+        assertRejected(guarded, CallNotPermittedException.Reason.CIRCUIT_OPEN);
+        assertEquals("the permit is released when the CircuitBreaker rejects", 0, bulkhead.getConcurrentCalls(key));
+
+        assertRejected(guarded, CallNotPermittedException.Reason.RATE_LIMITED);
+    }
+
+    @Test
+    public void failuresAreReportedAndRethrown() {
+        CircuitBreaker circuitBreaker = new CircuitBreakerImpl(0, 60000);
+        final IllegalStateException failure = new IllegalStateException();
+
+        Supplier<String> guarded = Decorators.none().withCircuitBreaker(circuitBreaker).decorateSupplier(
+                new Supplier<String>() {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public String get() {
+                        throw failure;
+                    }
+                });
+
+        try {
+            guarded.get();
+            fail("the failure is rethrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+
+        assertEquals("OPEN", circuitBreaker.getCurrentState());
+    }
+
+    @Test
+    public void completionStagesHoldTheirPermitUntilComplete() throws Exception {
+        SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(1);
+        final CompletableFuture<String> pending = new CompletableFuture<String>();
+
+        Supplier<CompletionStage<String>> guarded = Decorators.none().withBulkhead(bulkhead, key)
+                .decorateCompletionStage(new Supplier<CompletionStage<String>>() {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public CompletionStage<String> get() {
+                        return pending;
+                    }
+                });
+
+        CompletionStage<String> first = guarded.get();
+        assertEquals(1, bulkhead.getConcurrentCalls(key));
+
+        try {
+            guarded.get().toCompletableFuture().get();
+            fail("the bulkhead is full");
+        } catch (ExecutionException e) {
+            assertEquals(CallNotPermittedException.Reason.BULKHEAD_FULL,
+                    ((CallNotPermittedException) e.getCause()).getReason());
+        }
+
+        pending.complete("done");
+
+        assertEquals("done", first.toCompletableFuture().get());
+        assertEquals(0, bulkhead.getConcurrentCalls(key));
+    }
+
+    @Test
+    public void aNullCompletionStageIsAFailure() throws Exception {
+        SemaphoreBulkhead bulkhead = new SemaphoreBulkhead(1);
+        CircuitBreaker circuitBreaker = new CircuitBreakerImpl(0, 60000);
+
+        Supplier<CompletionStage<String>> guarded = Decorators.none().withBulkhead(bulkhead, key)
+                .withCircuitBreaker(circuitBreaker).decorateCompletionStage(new Supplier<CompletionStage<String>>() {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public CompletionStage<String> get() {
+                        return null;
+                    }
+                });
+
+        try {
+            guarded.get().toCompletableFuture().get();
+            fail("a null stage fails");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+
+        assertEquals("the permit is released", 0, bulkhead.getConcurrentCalls(key));
+        assertEquals("OPEN", circuitBreaker.getCurrentState());
+    }
+
+    private void assertRejected(Callable<String> guarded, CallNotPermittedException.Reason reason) throws Exception {
+        try {
+            guarded.call();
+            fail("expected " + reason);
+        } catch (CallNotPermittedException e) {
+            assertEquals(reason, e.getReason());
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.jmx;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.monitor.MonitorNotification;
+
+import org.junit.Test;
+
+import com.eternus.ratelimit.FixedBucket;
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.MemoryTokenStore;
+
+public class TestManagedRateLimiter {
+
+    @Test
+    public void asynchronousModeCoalescesDenialsPerKey() throws Exception {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(1);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+
+        ManagedRateLimiter managed = new ManagedRateLimiter(rateLimiter);
+        final List<Notification> received = new CopyOnWriteArrayList<Notification>();
+        managed.addNotificationListener(new NotificationListener() {
+
+            /**
+             * {@inheritDoc}
+             */
+            public void handleNotification(Notification notification, Object handback) {
+                received.add(notification);
+            }
+        }, null, null);
+
+        managed.setFlushIntervalInMillis(10000);
+        managed.setAsynchronous(true);
+
+        Key key = new Key() {
+        };
+
+        for (int i = 0; i < 4; ++i) {
+            managed.getToken(key);
+        }
+
+        assertTrue("nothing is sent on the request thread", received.isEmpty());
+
+        managed.setAsynchronous(false);
+
+        Notification denied = null;
+
+        for (Notification notification : received) {
+            if (MonitorNotification.THRESHOLD_VALUE_EXCEEDED.equals(notification.getType())) {
+                assertNull("one denial notification per key", denied);
+                denied = notification;
+            }
+        }
+
+        assertNotNull(denied);
+        assertEquals(Long.valueOf(3), denied.getUserData());
+    }
+
+}
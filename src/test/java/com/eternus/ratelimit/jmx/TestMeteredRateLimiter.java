@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.jmx;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.eternus.ratelimit.FixedBucket;
+import com.eternus.ratelimit.Key;
+import com.eternus.ratelimit.MemoryTokenStore;
+import com.eternus.ratelimit.TokenStatus;
+
+public class TestMeteredRateLimiter {
+
+    @Test
+    public void histogramBucketsAreAccurateToAFewPercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long i = 1; i <= 100000; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals(100000L, histogram.getCount());
+        assertEquals(100000L, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue("median " + median, median >= 50000 && median <= 51600);
+        assertEquals(100000L, histogram.getValueAtPercentile(100));
+
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value *= 3) {
+            long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexFor(value));
+            assertTrue(value + " within bucket", highest >= value && highest - value <= value / 32 + 1);
+        }
+    }
+
+    @Test
+    public void passesTheTokenStatusThroughAndCountsIt() {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+
+        MeteredRateLimiter metered = new MeteredRateLimiter(rateLimiter);
+        long status = metered.getTokenStatus(5);
+        assertTrue(TokenStatus.isKnown(status));
+        assertEquals(1, TokenStatus.getRemaining(status));
+
+        metered.getTokenStatus(5);
+        assertFalse(TokenStatus.isUsable(metered.getTokenStatus(5)));
+        assertEquals(2L, metered.getAllowedCount());
+        assertEquals(1L, metered.getDeniedCount());
+    }
+
+    @Test
+    public void countsAllowedAndDeniedRequestsAsAttributes() throws Exception {
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setTokenStore(new MemoryTokenStore());
+        rateLimiter.init();
+
+        MeteredRateLimiter metered = new MeteredRateLimiter(rateLimiter);
+        Key key = new Key() {
+        };
+
+        for (int i = 0; i < 5; ++i) {
+            metered.getToken(key);
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.eternus.ratelimit:type=MeteredRateLimiter,name=test");
+        server.registerMBean(metered, name);
+
+        try {
+            assertEquals(2L, server.getAttribute(name, "AllowedCount"));
+            assertEquals(3L, server.getAttribute(name, "DeniedCount"));
+            assertTrue((Long) server.getAttribute(name, "MaxLatencyInNanos") > 0);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+}
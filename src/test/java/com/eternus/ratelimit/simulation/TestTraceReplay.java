@@ -0,0 +1,67 @@
+/*
+ * Copyright 2009 James Abley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.eternus.ratelimit.simulation;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.eternus.ratelimit.FixedBucket;
+import com.eternus.ratelimit.LongMemoryTokenStore;
+import com.eternus.ratelimit.VirtualClock;
+
+public class TestTraceReplay {
+
+    @Test
+    public void replayUsesTheTimesInTheTrace() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setAllowedRequests(2);
+        rateLimiter.setDuration(60);
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new LongMemoryTokenStore(clock));
+        rateLimiter.init();
+
+        String trace = "# time,key\n" + "1000,alice\n" + "1000,bob\n" + "2000,alice\n" + "3000,alice\n" + "\n"
+                + "61500,alice\n";
+
+        long start = System.currentTimeMillis();
+        ReplayReport report = new TraceReplay(rateLimiter, clock).replay(new StringReader(trace));
+
+        assertTrue("a minute of trace replays without waiting", System.currentTimeMillis() - start < 1000);
+        assertEquals(3, report.getAdmitted("alice"));
+        assertEquals(1, report.getDenied("alice"));
+        assertEquals(1, report.getAdmitted("bob"));
+        assertEquals(0, report.getDenied("bob"));
+        assertEquals(4, report.getAdmitted());
+        assertEquals(1, report.getDenied());
+        assertEquals(61500, clock.currentTimeMillis());
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedLinesAreRejected() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        FixedBucket rateLimiter = new FixedBucket();
+        rateLimiter.setClock(clock);
+        rateLimiter.setTokenStore(new LongMemoryTokenStore(clock));
+
+        new TraceReplay(rateLimiter, clock).replay(new StringReader("yesterday,alice\n"));
+    }
+
+}